@@ -26,7 +26,8 @@ public class AuthOidcPlugin implements Plugin {
   public void define(Context context) {
     if (context.getRuntime().getSonarQubeSide() == SonarQubeSide.SERVER) {
       context.addExtensions(OidcConfiguration.class, OidcClient.class, OidcIdentityProvider.class,
-          UserIdentityFactory.class, AutoLoginFilter.class);
+          UserIdentityFactory.class, AutoLoginFilter.class, ProviderSnapshotStore.class, OidcWarmUp.class,
+          SettingsChangeHandler.class);
       context.addExtensions(OidcConfiguration.definitions());
     }
   }
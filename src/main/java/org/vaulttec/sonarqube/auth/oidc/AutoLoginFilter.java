@@ -55,13 +55,14 @@ public class AutoLoginFilter extends ServletFilter {
   @Override
   public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
       throws IOException, ServletException {
-    if (config.isEnabled() && config.isAutoLogin() && request instanceof HttpServletRequest) {
+    ConfigurationSnapshot settings = config.snapshot();
+    if (settings.isEnabled() && settings.isAutoLogin() && request instanceof HttpServletRequest) {
       String referrer = ((HttpServletRequest) request).getHeader("referer");
       LOGGER.debug("Referrer: {}", referrer);
 
       // Skip if disabled via request parameter
       if (referrer == null || !referrer.endsWith(SKIP_REQUEST_PARAM)) {
-        String loginPageUrl = config.getBaseUrl() + OIDC_URL + config.getContextPath() + "/projects";
+        String loginPageUrl = settings.getBaseUrl() + OIDC_URL + settings.getContextPath() + "/projects";
         LOGGER.debug("Redirecting to OIDC login page: {}", loginPageUrl);
         ((HttpServletResponse) response).sendRedirect(loginPageUrl);
         return;
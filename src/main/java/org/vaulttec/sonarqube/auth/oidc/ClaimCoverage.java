@@ -0,0 +1,169 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+/**
+ * Learns per issuer whether the ID tokens reliably contain the claims required by {@link UserIdentityFactory}.
+ * <p>
+ * Initially logins take the fallback path, which checks every ID token and requests the UserInfo endpoint if a
+ * required claim is missing. After {@link #FAST_PATH_THRESHOLD} consecutive ID tokens containing all required claims
+ * (and if the provider's <code>claims_supported</code> metadata, if any, advertises them) logins switch to the fast
+ * path which skips the UserInfo endpoint. The ID token is still checked on every login (which is cheap compared to
+ * the UserInfo request), and if it lacks a required claim the UserInfo endpoint is requested and logins switch back
+ * to the fallback path.
+ */
+public class ClaimCoverage {
+
+  private static final Logger LOGGER = Loggers.get(ClaimCoverage.class);
+
+  static final int FAST_PATH_THRESHOLD = 10;
+
+  private final String issuer;
+  private final List<Set<String>> requiredClaims;
+  private final List<ClaimPath> requiredPaths;
+  private final List<String> supportedClaims;
+  private final boolean advertised;
+  private final AtomicInteger consecutiveCoveredTokens = new AtomicInteger();
+  private final AtomicLong fastPathLogins = new AtomicLong();
+  private final AtomicLong fallbackPathLogins = new AtomicLong();
+  private final AtomicLong userInfoRequests = new AtomicLong();
+  private volatile boolean fastPath;
+
+  /**
+   * @param requiredClaims groups of alternative claims of which at least one has to be present
+   * @param requiredPaths claim paths which have to resolve to a value (e.g. the groups claim nested in another claim)
+   * @param supportedClaims the claims advertised by the provider metadata, or <code>null</code> if not advertised
+   */
+  public ClaimCoverage(String issuer, List<Set<String>> requiredClaims, List<ClaimPath> requiredPaths,
+      @Nullable List<String> supportedClaims) {
+    this.issuer = issuer;
+    this.requiredClaims = requiredClaims;
+    this.requiredPaths = requiredPaths;
+    this.supportedClaims = supportedClaims;
+    this.advertised = supportedClaims == null
+        || requiredClaims.stream().allMatch(alternatives -> alternatives.stream().anyMatch(supportedClaims::contains));
+  }
+
+  /**
+   * Returns the claims required for creating the SonarQube user identity with the given login strategy and the given
+   * compiled claim paths (<code>null</code> if not used).
+   */
+  static List<Set<String>> requiredClaims(@Nullable String loginStrategy, @Nullable ClaimPath loginClaimPath,
+      @Nullable ClaimPath groupsClaimPath) {
+    List<Set<String>> claims = new ArrayList<>();
+    claims.add(new LinkedHashSet<>(Arrays.asList("name", "preferred_username")));
+    if (OidcConfiguration.LOGIN_STRATEGY_PREFERRED_USERNAME.equals(loginStrategy)) {
+      claims.add(Collections.singleton("preferred_username"));
+    } else if (OidcConfiguration.LOGIN_STRATEGY_EMAIL.equals(loginStrategy)) {
+      claims.add(Collections.singleton("email"));
+    } else if (OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM.equals(loginStrategy) && loginClaimPath != null) {
+      claims.add(new LinkedHashSet<>(loginClaimPath.getClaimNames()));
+    }
+    if (groupsClaimPath != null) {
+      claims.add(new LinkedHashSet<>(groupsClaimPath.getClaimNames()));
+    }
+    return Collections.unmodifiableList(claims);
+  }
+
+  public boolean matches(String otherIssuer, List<Set<String>> otherRequiredClaims, List<ClaimPath> otherRequiredPaths,
+      @Nullable List<String> otherSupportedClaims) {
+    return issuer.equals(otherIssuer) && requiredClaims.equals(otherRequiredClaims)
+        && requiredPaths.equals(otherRequiredPaths) && Objects.equals(supportedClaims, otherSupportedClaims);
+  }
+
+  /**
+   * Decides if the UserInfo endpoint has to be requested for a login with the given ID token claims, and learns from
+   * the ID token whether to use the fast path for subsequent logins.
+   */
+  public boolean isUserInfoRequired(UserInfo idTokenClaims) {
+    boolean covered = isCoveredBy(idTokenClaims);
+    if (fastPath) {
+      fastPathLogins.incrementAndGet();
+      if (covered) {
+        return false;
+      }
+      fastPath = false;
+      consecutiveCoveredTokens.set(0);
+      LOGGER.info("ID token of '{}' lacks required claims - UserInfo is requested again", issuer);
+      userInfoRequests.incrementAndGet();
+      return true;
+    }
+    fallbackPathLogins.incrementAndGet();
+    if (covered) {
+      if (consecutiveCoveredTokens.incrementAndGet() >= FAST_PATH_THRESHOLD && advertised) {
+        fastPath = true;
+        LOGGER.info("ID tokens of '{}' contain all required claims - UserInfo requests are skipped", issuer);
+      }
+      return false;
+    }
+    consecutiveCoveredTokens.set(0);
+    userInfoRequests.incrementAndGet();
+    return true;
+  }
+
+  /**
+   * Returns <code>true</code> if the given claims contain all required claims. A top-level claim containing a required
+   * claim path (e.g. <code>realm_access</code> for <code>realm_access.roles</code>) isn't sufficient, the path itself
+   * has to resolve to a value.
+   */
+  boolean isCoveredBy(UserInfo claims) {
+    return requiredClaims.stream()
+        .allMatch(alternatives -> alternatives.stream().anyMatch(name -> claims.getClaim(name) != null))
+        && requiredPaths.stream().allMatch(path -> path.resolve(claims) != null);
+  }
+
+  public boolean isFastPath() {
+    return fastPath;
+  }
+
+  public long getFastPathLogins() {
+    return fastPathLogins.get();
+  }
+
+  public long getFallbackPathLogins() {
+    return fallbackPathLogins.get();
+  }
+
+  public long getUserInfoRequests() {
+    return userInfoRequests.get();
+  }
+
+  @Override
+  public String toString() {
+    return "ClaimCoverage{issuer=" + issuer + ", fastPath=" + fastPath + ", fastPathLogins=" + fastPathLogins
+        + ", fallbackPathLogins=" + fallbackPathLogins + ", userInfoRequests=" + userInfoRequests + "}";
+  }
+
+}
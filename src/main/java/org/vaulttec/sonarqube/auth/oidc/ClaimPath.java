@@ -0,0 +1,144 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSet;
+
+/**
+ * A precompiled selector of a (nested) claim. The path is either
+ * <ul>
+ * <li>a claim name, e.g. <code>groups</code>,</li>
+ * <li>a dotted path, e.g. <code>realm_access.roles</code> - a top-level claim with the whole path as name (e.g.
+ * <code>https://acme.com/roles</code>) takes precedence, or</li>
+ * <li>a JSON pointer (RFC 6901), e.g. <code>/resource_access/my.client/roles</code>, for member names containing
+ * dots.</li>
+ * </ul>
+ * Numeric segments select an array element. The path is split once, so resolving a claim only walks the claim's
+ * maps and lists without copying them.
+ */
+public final class ClaimPath {
+
+  private final String path;
+  private final boolean pointer;
+  private final String[] segments;
+  private final int[] indexes;
+
+  private ClaimPath(String path, boolean pointer, String[] segments) {
+    this.path = path;
+    this.pointer = pointer;
+    this.segments = segments;
+    this.indexes = new int[segments.length];
+    for (int i = 0; i < segments.length; i++) {
+      indexes[i] = parseIndex(segments[i]);
+    }
+  }
+
+  /**
+   * @throws IllegalStateException if the path is empty
+   */
+  public static ClaimPath compile(String path) {
+    if (path.isEmpty() || "/".equals(path)) {
+      throw new IllegalStateException("Invalid claim path: '" + path + "'");
+    }
+    if (path.startsWith("/")) {
+      String[] segments = path.substring(1).split("/", -1);
+      for (int i = 0; i < segments.length; i++) {
+        segments[i] = segments[i].replace("~1", "/").replace("~0", "~");
+      }
+      return new ClaimPath(path, true, segments);
+    }
+    String[] segments = path.split("\\.", -1);
+    if (Arrays.asList(segments).contains("")) {
+      // Not a dotted path, e.g. a claim name ending with a dot
+      segments = new String[] { path };
+    }
+    return new ClaimPath(path, false, segments);
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  /**
+   * Returns the names of the top-level claims this path may select from.
+   */
+  public List<String> getClaimNames() {
+    if (pointer || segments.length == 1) {
+      return Collections.singletonList(segments[0]);
+    }
+    return Arrays.asList(path, segments[0]);
+  }
+
+  @CheckForNull
+  public Object resolve(ClaimsSet claims) {
+    if (!pointer) {
+      Object claim = claims.getClaim(path);
+      if (claim != null || segments.length == 1) {
+        return claim;
+      }
+    }
+    Object current = claims.getClaim(segments[0]);
+    for (int i = 1; i < segments.length && current != null; i++) {
+      if (current instanceof Map) {
+        current = ((Map<?, ?>) current).get(segments[i]);
+      } else if (current instanceof List && indexes[i] >= 0 && indexes[i] < ((List<?>) current).size()) {
+        current = ((List<?>) current).get(indexes[i]);
+      } else {
+        current = null;
+      }
+    }
+    return current;
+  }
+
+  private static int parseIndex(String segment) {
+    if (segment.isEmpty() || segment.length() > 9) {
+      return -1;
+    }
+    for (int i = 0; i < segment.length(); i++) {
+      char c = segment.charAt(i);
+      if (c < '0' || c > '9') {
+        return -1;
+      }
+    }
+    return Integer.parseInt(segment);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    // The path determines the segments
+    return obj instanceof ClaimPath && path.equals(((ClaimPath) obj).path);
+  }
+
+  @Override
+  public int hashCode() {
+    return path.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return path;
+  }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+/**
+ * Source of a claim used for creating the SonarQube user identity, ordered from the cheapest to the most expensive
+ * one.
+ */
+public enum ClaimSource {
+
+  /** The ID token - claims missing there are requested from the UserInfo endpoint */
+  ID_TOKEN("id_token"),
+  /** The (validated) JWT access token - claims missing there are requested from the UserInfo endpoint */
+  ACCESS_TOKEN("access_token"),
+  /** The UserInfo endpoint, which is always requested */
+  USER_INFO("userinfo");
+
+  private final String value;
+
+  ClaimSource(String value) {
+    this.value = value;
+  }
+
+  public String getValue() {
+    return value;
+  }
+
+  public static ClaimSource fromValue(String value) {
+    for (ClaimSource source : values()) {
+      if (source.value.equalsIgnoreCase(value)) {
+        return source;
+      }
+    }
+    throw new IllegalStateException("Invalid claim source '" + value + "' - expected 'id_token', 'access_token' or "
+        + "'userinfo'");
+  }
+
+}
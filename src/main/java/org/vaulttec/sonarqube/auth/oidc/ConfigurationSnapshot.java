@@ -0,0 +1,451 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.server.authentication.Display;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+
+/**
+ * Immutable snapshot of the settings used for every login, including the objects derived from them (e.g. the parsed
+ * scope, the compiled claim paths or the provider's display). A snapshot can be shared between threads without
+ * locking. Invalid settings (e.g. a malformed claim path) don't fail the creation of the snapshot, but every use of
+ * the affected value.
+ */
+public final class ConfigurationSnapshot {
+
+  private static final List<String> USER_INFO_CLAIMS = Arrays.asList("sub", "name", "preferred_username", "email");
+
+  private final String[] values;
+  private final boolean enabled;
+  private final boolean autoLogin;
+  private final boolean allowUsersToSignUp;
+  private final String baseUrl;
+  private final String contextPath;
+  private final String issuerUri;
+  private final ClientID clientId;
+  private final Secret clientSecret;
+  private final Scope scope;
+  private final JWSAlgorithm idTokenSignAlgorithm;
+  private final String loginButtonText;
+  private final Display display;
+  private final long loginTimeout;
+  private final boolean concurrentCallback;
+  private final long httpConnectTimeout;
+  private final long httpReadTimeout;
+  private final long tokenReadTimeout;
+  private final long userInfoReadTimeout;
+  private final long providerMetadataCacheTtl;
+  private final long jwkSetCacheTtl;
+  private final long cacheGracePeriod;
+  private final long userInfoCacheTtl;
+  private final long distributedClaimsCacheTtl;
+  private final long syncGroupsMaxAge;
+  private final Parsed<Map<String, ClaimSource>> claimSources;
+  private final boolean distributedClaims;
+  private final Set<String> distributedClaimsAllowedHosts;
+  private final String loginStrategy;
+  private final Parsed<ClaimPath> loginClaimPath;
+  private final boolean syncGroups;
+  private final Parsed<ClaimPath> groupsClaimPath;
+  private final Parsed<GroupFilter> groupFilter;
+  private final List<String> syncGroupsMapping;
+  private final String syncGroupsMappingFile;
+  private final String ldapUrl;
+  private final String ldapBindDn;
+  private final String ldapBindPassword;
+  private final String ldapGroupSearchBase;
+  private final String ldapGroupSearchFilter;
+  private final String ldapGroupNameAttribute;
+  private final long ldapCacheTtl;
+  private final List<Set<String>> requiredClaims;
+  private final List<ClaimPath> requiredClaimPaths;
+  private final Set<String> userInfoClaimNames;
+
+  /**
+   * Creates a snapshot of the given configuration. The given raw setting values are used to check if the snapshot
+   * is still up-to-date.
+   */
+  ConfigurationSnapshot(OidcConfiguration config, String[] values) {
+    this.values = values;
+    this.enabled = config.isEnabled();
+    this.autoLogin = config.isAutoLogin();
+    this.allowUsersToSignUp = config.allowUsersToSignUp();
+    this.baseUrl = config.getBaseUrl();
+    this.contextPath = config.getContextPath();
+    this.issuerUri = config.issuerUri();
+    String id = config.clientId();
+    this.clientId = id == null || id.isEmpty() ? null : new ClientID(id);
+    String secret = config.clientSecret();
+    this.clientSecret = secret == null ? new Secret("") : new Secret(secret);
+    this.scope = Scope.parse(config.scopes());
+    String algorithmName = config.idTokenSignAlgorithm();
+    this.idTokenSignAlgorithm = algorithmName == null ? null : new JWSAlgorithm(algorithmName);
+    this.loginButtonText = config.loginButtonText();
+    String iconPath = config.iconPath();
+    this.display = iconPath == null || iconPath.isEmpty() ? null
+        : Display.builder().setIconPath(iconPath).setBackgroundColor(config.backgroundColor()).build();
+    this.loginTimeout = config.loginTimeout();
+    this.concurrentCallback = config.concurrentCallback();
+    this.httpConnectTimeout = config.httpConnectTimeout();
+    this.httpReadTimeout = config.httpReadTimeout();
+    this.tokenReadTimeout = config.tokenReadTimeout();
+    this.userInfoReadTimeout = config.userInfoReadTimeout();
+    this.providerMetadataCacheTtl = config.providerMetadataCacheTtl();
+    this.jwkSetCacheTtl = config.jwkSetCacheTtl();
+    this.cacheGracePeriod = config.cacheGracePeriod();
+    this.userInfoCacheTtl = config.userInfoCacheTtl();
+    this.distributedClaimsCacheTtl = config.distributedClaimsCacheTtl();
+    this.syncGroupsMaxAge = config.syncGroupsMaxAge();
+    this.claimSources = Parsed.of(() -> Collections.unmodifiableMap(config.claimSources()));
+    this.distributedClaims = config.distributedClaims();
+    Set<String> allowedHosts = new HashSet<>();
+    for (String host : config.distributedClaimsAllowedHosts()) {
+      allowedHosts.add(host.trim().toLowerCase(Locale.ROOT));
+    }
+    this.distributedClaimsAllowedHosts = Collections.unmodifiableSet(allowedHosts);
+    this.loginStrategy = config.loginStrategy();
+    this.loginClaimPath = OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM.equals(loginStrategy)
+        ? Parsed.of(() -> ClaimPath.compile(config.loginStrategyCustomClaimName()))
+        : Parsed.of(() -> null);
+    this.syncGroups = config.syncGroups();
+    this.groupsClaimPath = syncGroups ? Parsed.of(() -> ClaimPath.compile(config.syncGroupsClaimName()))
+        : Parsed.of(() -> null);
+    this.groupFilter = syncGroups
+        ? Parsed.of(() -> GroupFilter.compile(config.syncGroupsInclude(), config.syncGroupsExclude()))
+        : Parsed.of(() -> null);
+    this.syncGroupsMapping = Collections.unmodifiableList(Arrays.asList(config.syncGroupsMapping()));
+    this.syncGroupsMappingFile = config.syncGroupsMappingFile();
+    this.ldapUrl = config.ldapUrl();
+    this.ldapBindDn = config.ldapBindDn();
+    this.ldapBindPassword = config.ldapBindPassword();
+    this.ldapGroupSearchBase = config.ldapGroupSearchBase();
+    this.ldapGroupSearchFilter = config.ldapGroupSearchFilter();
+    this.ldapGroupNameAttribute = config.ldapGroupNameAttribute();
+    this.ldapCacheTtl = config.ldapCacheTtl();
+    // Invalid claim paths are left out here, they fail the creation of the user identity
+    this.requiredClaims = ClaimCoverage.requiredClaims(loginStrategy, loginClaimPath.orNull(),
+        groupsClaimPath.orNull());
+    List<ClaimPath> paths = new ArrayList<>();
+    addClaimPath(paths, loginClaimPath.orNull());
+    addClaimPath(paths, groupsClaimPath.orNull());
+    this.requiredClaimPaths = Collections.unmodifiableList(paths);
+    Set<String> claimNames = new HashSet<>(USER_INFO_CLAIMS);
+    addClaimNames(claimNames, loginClaimPath.orNull());
+    addClaimNames(claimNames, groupsClaimPath.orNull());
+    this.userInfoClaimNames = Collections.unmodifiableSet(claimNames);
+  }
+
+  private static void addClaimPath(List<ClaimPath> paths, @Nullable ClaimPath path) {
+    if (path != null) {
+      paths.add(path);
+    }
+  }
+
+  private static void addClaimNames(Set<String> names, @Nullable ClaimPath path) {
+    if (path != null) {
+      names.addAll(path.getClaimNames());
+    }
+  }
+
+  boolean matches(String[] otherValues) {
+    return Arrays.equals(values, otherValues);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  public boolean isAutoLogin() {
+    return autoLogin;
+  }
+
+  public boolean allowUsersToSignUp() {
+    return allowUsersToSignUp;
+  }
+
+  public String getBaseUrl() {
+    return baseUrl;
+  }
+
+  public String getContextPath() {
+    return contextPath;
+  }
+
+  @CheckForNull
+  public String getIssuerUri() {
+    return issuerUri;
+  }
+
+  @CheckForNull
+  public ClientID getClientId() {
+    return clientId;
+  }
+
+  public Secret getClientSecret() {
+    return clientSecret;
+  }
+
+  @CheckForNull
+  public Scope getScope() {
+    return scope;
+  }
+
+  @CheckForNull
+  public JWSAlgorithm getIdTokenSignAlgorithm() {
+    return idTokenSignAlgorithm;
+  }
+
+  @CheckForNull
+  public String getLoginButtonText() {
+    return loginButtonText;
+  }
+
+  /**
+   * Returns the provider's display, or <code>null</code> if no icon path is configured.
+   */
+  @CheckForNull
+  public Display getDisplay() {
+    return display;
+  }
+
+  public long getLoginTimeout() {
+    return loginTimeout;
+  }
+
+  public boolean isConcurrentCallback() {
+    return concurrentCallback;
+  }
+
+  public long getHttpConnectTimeout() {
+    return httpConnectTimeout;
+  }
+
+  public long getHttpReadTimeout() {
+    return httpReadTimeout;
+  }
+
+  public long getTokenReadTimeout() {
+    return tokenReadTimeout;
+  }
+
+  public long getUserInfoReadTimeout() {
+    return userInfoReadTimeout;
+  }
+
+  public long getProviderMetadataCacheTtl() {
+    return providerMetadataCacheTtl;
+  }
+
+  public long getJwkSetCacheTtl() {
+    return jwkSetCacheTtl;
+  }
+
+  public long getCacheGracePeriod() {
+    return cacheGracePeriod;
+  }
+
+  public long getUserInfoCacheTtl() {
+    return userInfoCacheTtl;
+  }
+
+  public long getDistributedClaimsCacheTtl() {
+    return distributedClaimsCacheTtl;
+  }
+
+  public long getSyncGroupsMaxAge() {
+    return syncGroupsMaxAge;
+  }
+
+  /**
+   * Returns the configured claim sources by claim name.
+   *
+   * @throws IllegalStateException if a claim source is invalid
+   */
+  public Map<String, ClaimSource> getClaimSources() {
+    return claimSources.get();
+  }
+
+  public boolean isDistributedClaims() {
+    return distributedClaims;
+  }
+
+  /**
+   * Returns the lower-case hosts which are trusted as distributed claim sources besides the issuer's host.
+   */
+  public Set<String> getDistributedClaimsAllowedHosts() {
+    return distributedClaimsAllowedHosts;
+  }
+
+  @CheckForNull
+  public String getLoginStrategy() {
+    return loginStrategy;
+  }
+
+  /**
+   * Returns the compiled claim path of the custom claim login strategy, or <code>null</code> if another login strategy
+   * is configured.
+   *
+   * @throws IllegalStateException if the claim path is invalid
+   */
+  @CheckForNull
+  public ClaimPath getLoginClaimPath() {
+    return loginClaimPath.get();
+  }
+
+  public boolean isSyncGroups() {
+    return syncGroups;
+  }
+
+  /**
+   * Returns the compiled claim path of the groups claim, or <code>null</code> if groups aren't synchronized.
+   *
+   * @throws IllegalStateException if the claim path is invalid
+   */
+  @CheckForNull
+  public ClaimPath getGroupsClaimPath() {
+    return groupsClaimPath.get();
+  }
+
+  /**
+   * Returns the compiled filter of the synchronized groups, or <code>null</code> if groups aren't synchronized.
+   *
+   * @throws IllegalStateException if a pattern is invalid
+   */
+  @CheckForNull
+  public GroupFilter getGroupFilter() {
+    return groupFilter.get();
+  }
+
+  /**
+   * Returns the group mappings of the configuration (the mapping file is read by {@link GroupMappingProvider}).
+   */
+  public List<String> getSyncGroupsMapping() {
+    return syncGroupsMapping;
+  }
+
+  @CheckForNull
+  public String getSyncGroupsMappingFile() {
+    return syncGroupsMappingFile;
+  }
+
+  @CheckForNull
+  public String getLdapUrl() {
+    return ldapUrl;
+  }
+
+  @CheckForNull
+  public String getLdapBindDn() {
+    return ldapBindDn;
+  }
+
+  @CheckForNull
+  public String getLdapBindPassword() {
+    return ldapBindPassword;
+  }
+
+  public String getLdapGroupSearchBase() {
+    return ldapGroupSearchBase;
+  }
+
+  public String getLdapGroupSearchFilter() {
+    return ldapGroupSearchFilter;
+  }
+
+  public String getLdapGroupNameAttribute() {
+    return ldapGroupNameAttribute;
+  }
+
+  public long getLdapCacheTtl() {
+    return ldapCacheTtl;
+  }
+
+  /**
+   * Returns the claims required for creating the SonarQube user identity, as groups of alternative claims of which at
+   * least one has to be present.
+   */
+  public List<Set<String>> getRequiredClaims() {
+    return requiredClaims;
+  }
+
+  /**
+   * Returns the claim paths which have to resolve to a value for creating the SonarQube user identity (the custom
+   * login claim and the groups claim, if used).
+   */
+  public List<ClaimPath> getRequiredClaimPaths() {
+    return requiredClaimPaths;
+  }
+
+  /**
+   * Returns the names of the claims used for creating the SonarQube user identity. All other claims of the UserInfo
+   * response are skipped while parsing.
+   */
+  public Set<String> getUserInfoClaimNames() {
+    return userInfoClaimNames;
+  }
+
+  /**
+   * A parsed setting, or the exception thrown while parsing it.
+   */
+  private static final class Parsed<T> {
+    private final T value;
+    private final RuntimeException error;
+
+    private Parsed(@Nullable T value, @Nullable RuntimeException error) {
+      this.value = value;
+      this.error = error;
+    }
+
+    private static <T> Parsed<T> of(Supplier<T> parser) {
+      try {
+        return new Parsed<>(parser.get(), null);
+      } catch (RuntimeException e) {
+        return new Parsed<>(null, e);
+      }
+    }
+
+    private T get() {
+      if (error != null) {
+        throw error;
+      }
+      return value;
+    }
+
+    @CheckForNull
+    private T orNull() {
+      return value;
+    }
+  }
+
+}
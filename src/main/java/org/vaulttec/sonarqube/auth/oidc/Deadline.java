@@ -0,0 +1,98 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Point in time until which all requests to the identity provider during a single login must be finished. The
+ * timeouts of the individual requests are reduced to the remaining time.
+ */
+public final class Deadline {
+
+  private static final Deadline NONE = new Deadline(Long.MAX_VALUE);
+
+  private final long expiresAtNanos;
+
+  private Deadline(long expiresAtNanos) {
+    this.expiresAtNanos = expiresAtNanos;
+  }
+
+  /**
+   * Returns a deadline which expires after the given number of seconds, or which never expires if the given value isn't
+   * positive.
+   */
+  public static Deadline after(long seconds) {
+    return seconds > 0 ? new Deadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds)) : NONE;
+  }
+
+  /**
+   * Returns a deadline which expires after the given number of milliseconds.
+   */
+  static Deadline afterMillis(long millis) {
+    return new Deadline(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(millis));
+  }
+
+  public static Deadline none() {
+    return NONE;
+  }
+
+  /**
+   * Returns the remaining time in milliseconds.
+   *
+   * @throws IllegalStateException if the deadline is exceeded
+   */
+  public long remainingMillis() {
+    if (this == NONE) {
+      return Long.MAX_VALUE;
+    }
+    long remaining = TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime());
+    if (remaining <= 0) {
+      throw new IllegalStateException("Login timed out: Identity provider didn't respond in time");
+    }
+    return remaining;
+  }
+
+  /**
+   * Returns <code>true</code> if more than the given time (in milliseconds) is remaining.
+   */
+  public boolean hasRemaining(long millis) {
+    return this == NONE || TimeUnit.NANOSECONDS.toMillis(expiresAtNanos - System.nanoTime()) > millis;
+  }
+
+  /**
+   * Returns <code>true</code> if no time is remaining.
+   */
+  public boolean isExpired() {
+    return !hasRemaining(0);
+  }
+
+  /**
+   * Returns the given timeout (in milliseconds) reduced to the remaining time.
+   *
+   * @throws IllegalStateException if the deadline is exceeded
+   */
+  public int limit(int timeoutMillis) {
+    long remaining = remainingMillis();
+    if (timeoutMillis <= 0) {
+      return (int) Math.min(remaining, Integer.MAX_VALUE);
+    }
+    return (int) Math.min(timeoutMillis, remaining);
+  }
+
+}
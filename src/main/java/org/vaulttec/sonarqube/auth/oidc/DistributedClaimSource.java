@@ -0,0 +1,198 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSet;
+
+/**
+ * A source of distributed claims (OpenID Connect Core 1.0, section 5.6.2) referenced by the
+ * <code>_claim_names</code> and <code>_claim_sources</code> claims. Azure AD e.g. uses a distributed
+ * <code>groups</code> claim if a user is a member of too many groups (group overage).
+ * <p>
+ * Azure AD references the retired Azure AD Graph API, so its endpoint is replaced by the corresponding Microsoft Graph
+ * request for the user's (transitive) group memberships. The result of this request is paged.
+ * <p>
+ * As the access token of the login is sent to the endpoint and the returned claims aren't signed, only HTTPS endpoints
+ * on the issuer's host or on a configured allowed host are accepted.
+ */
+public final class DistributedClaimSource {
+
+  private static final Logger LOGGER = Loggers.get(DistributedClaimSource.class);
+
+  static final String CLAIM_NAMES = "_claim_names";
+  static final String CLAIM_SOURCES = "_claim_sources";
+
+  static final String MICROSOFT_GRAPH_GROUPS = "https://graph.microsoft.com/v1.0/users/%s/transitiveMemberOf"
+      + "?$select=id&$top=999";
+
+  private static final Pattern AZURE_AD_GRAPH_MEMBER_OBJECTS = Pattern
+      .compile("https://graph\\.windows\\.net/[^/]+/users/([^/]+)/getMemberObjects(\\?.*)?");
+
+  private final String name;
+  private final URI endpoint;
+  private final String accessToken;
+  private final boolean paged;
+  private final List<String> claimNames;
+
+  DistributedClaimSource(String name, URI endpoint, @Nullable String accessToken, boolean paged,
+      List<String> claimNames) {
+    this.name = name;
+    this.endpoint = endpoint;
+    this.accessToken = accessToken;
+    this.paged = paged;
+    this.claimNames = claimNames;
+  }
+
+  /**
+   * Returns the sources of the given claims which are distributed. Aggregated claims and sources without a valid or
+   * trusted endpoint are ignored.
+   */
+  public static List<DistributedClaimSource> find(ClaimsSet claims, Collection<String> names, URI issuer,
+      Set<String> allowedHosts) {
+    Map<?, ?> claimNames = asMap(claims.getClaim(CLAIM_NAMES));
+    Map<?, ?> claimSources = asMap(claims.getClaim(CLAIM_SOURCES));
+    if (claimNames == null || claimSources == null) {
+      return Collections.emptyList();
+    }
+    Map<String, List<String>> namesBySource = new LinkedHashMap<>();
+    for (String name : names) {
+      Object source = claimNames.get(name);
+      if (source instanceof String) {
+        namesBySource.computeIfAbsent((String) source, key -> new ArrayList<>()).add(name);
+      }
+    }
+    List<DistributedClaimSource> sources = new ArrayList<>();
+    for (Map.Entry<String, List<String>> entry : namesBySource.entrySet()) {
+      Map<?, ?> source = asMap(claimSources.get(entry.getKey()));
+      if (source != null && source.get("endpoint") instanceof String) {
+        DistributedClaimSource distributedSource = create(entry.getKey(), (String) source.get("endpoint"),
+            source.get("access_token") instanceof String ? (String) source.get("access_token") : null,
+            entry.getValue());
+        if (distributedSource != null && distributedSource.isTrusted(issuer, allowedHosts)) {
+          sources.add(distributedSource);
+        } else if (distributedSource != null) {
+          LOGGER.warn("Ignoring distributed claim source {} as its endpoint isn't trusted", distributedSource);
+        }
+      }
+    }
+    return sources;
+  }
+
+  @CheckForNull
+  private static DistributedClaimSource create(String name, String endpoint, @Nullable String accessToken,
+      List<String> claimNames) {
+    try {
+      Matcher matcher = AZURE_AD_GRAPH_MEMBER_OBJECTS.matcher(endpoint);
+      if (matcher.matches() && claimNames.size() == 1) {
+        return new DistributedClaimSource(name, new URI(String.format(MICROSOFT_GRAPH_GROUPS, matcher.group(1))),
+            accessToken, true, claimNames);
+      }
+      return new DistributedClaimSource(name, new URI(endpoint), accessToken, false, claimNames);
+    } catch (URISyntaxException e) {
+      return null;
+    }
+  }
+
+  @CheckForNull
+  private static Map<?, ?> asMap(@Nullable Object value) {
+    return value instanceof Map ? (Map<?, ?>) value : null;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public URI getEndpoint() {
+    return endpoint;
+  }
+
+  /**
+   * Returns the access token of the source, or <code>null</code> if the access token of the login has to be used.
+   */
+  @CheckForNull
+  public String getAccessToken() {
+    return accessToken;
+  }
+
+  /**
+   * Returns <code>true</code> if the endpoint returns the values of the (single) claim as paged Microsoft Graph
+   * collection, otherwise it returns a JSON object with the claims.
+   */
+  public boolean isPaged() {
+    return paged;
+  }
+
+  public List<String> getClaimNames() {
+    return claimNames;
+  }
+
+  /**
+   * Returns <code>true</code> if the endpoint is the Microsoft Graph replacement of an Azure AD Graph endpoint or an
+   * HTTPS endpoint on the issuer's origin or on one of the given (lower-case) hosts.
+   */
+  boolean isTrusted(URI issuer, Set<String> allowedHosts) {
+    if (paged) {
+      return true;
+    }
+    if (!"https".equalsIgnoreCase(endpoint.getScheme()) || endpoint.getHost() == null) {
+      return false;
+    }
+    String host = endpoint.getHost().toLowerCase(Locale.ROOT);
+    return allowedHosts.contains(host) || ("https".equalsIgnoreCase(issuer.getScheme())
+        && host.equalsIgnoreCase(issuer.getHost()) && getPort(endpoint) == getPort(issuer));
+  }
+
+  private static int getPort(URI uri) {
+    return uri.getPort() == -1 ? 443 : uri.getPort();
+  }
+
+  /**
+   * Returns <code>true</code> if the given link to the next page points to the same server as the endpoint, so the
+   * access token isn't sent elsewhere.
+   */
+  boolean isSameOrigin(URI link) {
+    return Objects.equals(endpoint.getScheme(), link.getScheme()) && Objects.equals(endpoint.getHost(), link.getHost())
+        && endpoint.getPort() == link.getPort();
+  }
+
+  @Override
+  public String toString() {
+    return name + " (" + endpoint + ")";
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+import javax.annotation.CheckForNull;
+
+import org.sonar.api.utils.System2;
+
+/**
+ * Caches values by key for the time-to-live given in milliseconds. The time-to-live is applied when reading an entry,
+ * so changing it affects the entries already cached as well. The cache holds at most the given number of entries and
+ * evicts the least recently used one when it's full. A size or time-to-live of 0 disables the cache.
+ */
+public class ExpiringCache<V> {
+
+  private final int maxSize;
+  private final LongSupplier ttlMillis;
+  private final System2 system2;
+  private final Map<String, Entry<V>> entries;
+
+  public ExpiringCache(int maxSize, LongSupplier ttlMillis, System2 system2) {
+    this.maxSize = maxSize;
+    this.ttlMillis = ttlMillis;
+    this.system2 = system2;
+    this.entries = new LinkedHashMap<String, Entry<V>>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry<V>> eldest) {
+        return size() > ExpiringCache.this.maxSize;
+      }
+    };
+  }
+
+  public boolean isEnabled() {
+    return maxSize > 0 && ttlMillis.getAsLong() > 0;
+  }
+
+  @CheckForNull
+  public synchronized V get(String key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      return null;
+    }
+    if (system2.now() >= entry.storedAt + ttlMillis.getAsLong()) {
+      entries.remove(key);
+      return null;
+    }
+    return entry.value;
+  }
+
+  public synchronized void put(String key, V value) {
+    if (isEnabled()) {
+      entries.put(key, new Entry<>(value, system2.now()));
+    }
+  }
+
+  public synchronized void invalidate() {
+    entries.clear();
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  private static class Entry<V> {
+    private final V value;
+    private final long storedAt;
+
+    private Entry(V value, long storedAt) {
+      this.value = value;
+      this.storedAt = storedAt;
+    }
+  }
+
+}
@@ -0,0 +1,135 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Filters the groups of a user by include and exclude patterns, so only the groups relevant to SonarQube are
+ * synchronized. A group is accepted if it matches any include pattern (or if there are none) and no exclude pattern.
+ * <p>
+ * Patterns are prefixed with their type: <code>prefix:</code>, <code>regex:</code> or <code>glob:</code> (the
+ * default, supporting the wildcards <code>*</code> and <code>?</code>). The patterns are compiled once: names without
+ * wildcards into a hash set, prefixes into an array and all globs and regular expressions into a single pattern, so
+ * checking a group doesn't depend on the number of patterns.
+ */
+public final class GroupFilter {
+
+  static final GroupFilter ACCEPT_ALL = new GroupFilter(null, null);
+
+  private final Patterns includes;
+  private final Patterns excludes;
+
+  private GroupFilter(@Nullable Patterns includes, @Nullable Patterns excludes) {
+    this.includes = includes;
+    this.excludes = excludes;
+  }
+
+  public static GroupFilter compile(String[] includes, String[] excludes) {
+    if (includes.length == 0 && excludes.length == 0) {
+      return ACCEPT_ALL;
+    }
+    return new GroupFilter(includes.length > 0 ? Patterns.compile(includes) : null,
+        excludes.length > 0 ? Patterns.compile(excludes) : null);
+  }
+
+  public boolean accept(String group) {
+    return (includes == null || includes.matches(group)) && (excludes == null || !excludes.matches(group));
+  }
+
+  private static final class Patterns {
+    private final Set<String> names;
+    private final String[] prefixes;
+    private final Pattern pattern;
+
+    private Patterns(Set<String> names, String[] prefixes, @Nullable Pattern pattern) {
+      this.names = names;
+      this.prefixes = prefixes;
+      this.pattern = pattern;
+    }
+
+    static Patterns compile(String[] patterns) {
+      Set<String> names = new HashSet<>();
+      List<String> prefixes = new ArrayList<>();
+      List<String> regexes = new ArrayList<>();
+      for (String pattern : patterns) {
+        if (pattern.startsWith("prefix:")) {
+          prefixes.add(pattern.substring("prefix:".length()));
+        } else if (pattern.startsWith("regex:")) {
+          regexes.add(pattern.substring("regex:".length()));
+        } else {
+          String glob = pattern.startsWith("glob:") ? pattern.substring("glob:".length()) : pattern;
+          if (glob.indexOf('*') < 0 && glob.indexOf('?') < 0) {
+            names.add(glob);
+          } else {
+            regexes.add(globToRegex(glob));
+          }
+        }
+      }
+      Pattern pattern = null;
+      if (!regexes.isEmpty()) {
+        try {
+          pattern = Pattern.compile("(?:" + String.join(")|(?:", regexes) + ")");
+        } catch (PatternSyntaxException e) {
+          throw new IllegalStateException("Invalid group filter pattern: " + e.getMessage(), e);
+        }
+      }
+      return new Patterns(names, prefixes.toArray(new String[0]), pattern);
+    }
+
+    boolean matches(String group) {
+      if (names.contains(group)) {
+        return true;
+      }
+      for (String prefix : prefixes) {
+        if (group.startsWith(prefix)) {
+          return true;
+        }
+      }
+      return pattern != null && pattern.matcher(group).matches();
+    }
+
+    private static String globToRegex(String glob) {
+      StringBuilder regex = new StringBuilder();
+      StringBuilder literal = new StringBuilder();
+      for (char c : glob.toCharArray()) {
+        if (c == '*' || c == '?') {
+          if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+            literal.setLength(0);
+          }
+          regex.append(c == '*' ? ".*" : ".");
+        } else {
+          literal.append(c);
+        }
+      }
+      if (literal.length() > 0) {
+        regex.append(Pattern.quote(literal.toString()));
+      }
+      return regex.toString();
+    }
+  }
+
+}
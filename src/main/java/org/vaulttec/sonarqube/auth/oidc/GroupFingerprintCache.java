@@ -0,0 +1,93 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.function.LongSupplier;
+
+import org.sonar.api.utils.System2;
+
+/**
+ * Remembers a fingerprint (128-bit hash of the sorted group names) of the groups last synchronized per subject, so a
+ * login with an unchanged set of groups can skip the group synchronization of SonarQube. The groups are synchronized
+ * again after the given maximum age, e.g. to revert changes made within SonarQube. The cache holds at most the given
+ * number of subjects and evicts the least recently used one when it's full.
+ */
+public class GroupFingerprintCache {
+
+  private static final int FINGERPRINT_LENGTH = 16;
+
+  private final ExpiringCache<byte[]> entries;
+
+  public GroupFingerprintCache(int maxSize, LongSupplier maxAgeMillis, System2 system2) {
+    this.entries = new ExpiringCache<>(maxSize, maxAgeMillis, system2);
+  }
+
+  public boolean isEnabled() {
+    return entries.isEnabled();
+  }
+
+  /**
+   * Returns <code>true</code> if the given groups were synchronized for the given subject within the maximum age.
+   */
+  public boolean isUnchanged(String subject, Collection<String> groups) {
+    if (!isEnabled()) {
+      return false;
+    }
+    byte[] fingerprint = entries.get(subject);
+    return fingerprint != null && Arrays.equals(fingerprint, fingerprint(groups));
+  }
+
+  /**
+   * Records that the given groups were synchronized for the given subject.
+   */
+  public void put(String subject, Collection<String> groups) {
+    entries.put(subject, fingerprint(groups));
+  }
+
+  public void invalidate() {
+    entries.invalidate();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+  static byte[] fingerprint(Collection<String> groups) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    String[] sorted = groups.toArray(new String[0]);
+    Arrays.sort(sorted);
+    for (String group : sorted) {
+      // Terminate each name, so e.g. ["ab", "c"] and ["a", "bc"] differ
+      digest.update(group.getBytes(UTF_8));
+      digest.update((byte) 0);
+    }
+    return Arrays.copyOf(digest.digest(), FINGERPRINT_LENGTH);
+  }
+
+}
@@ -0,0 +1,147 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Maps the group names of the identity provider (e.g. LDAP DNs or GUIDs) to SonarQube group names. Each mapping is
+ * specified as <code>&lt;IdP group&gt;=&lt;SonarQube group&gt;</code> (the last <code>=</code> is the separator, so
+ * DNs can be used as is) or as rewrite rule <code>regex:&lt;pattern&gt;=&lt;replacement&gt;</code>. An IdP group can
+ * be mapped to multiple SonarQube groups. Groups without a mapping are kept unchanged.
+ * <p>
+ * The names are stored in a hash table, so the lookup time doesn't depend on the number of mappings. The rewrite rules
+ * are only evaluated (in the given order) for groups without an exact mapping.
+ */
+public final class GroupMapping {
+
+  static final GroupMapping IDENTITY = new GroupMapping(Collections.emptyMap(), Collections.emptyList());
+
+  private static final String REGEX_PREFIX = "regex:";
+
+  private final Map<String, List<String>> groups;
+  private final List<Rule> rules;
+
+  private GroupMapping(Map<String, List<String>> groups, List<Rule> rules) {
+    this.groups = groups;
+    this.rules = rules;
+  }
+
+  /**
+   * Compiles the given mappings. Empty lines and lines starting with <code>#</code> are ignored.
+   *
+   * @throws IllegalStateException if a mapping is invalid
+   */
+  public static GroupMapping compile(Iterable<String> mappings) {
+    return builder().add("configuration", mappings).build();
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * Adds the SonarQube groups the given IdP group is mapped to to the given collection.
+   */
+  public void map(String group, Collection<String> target) {
+    List<String> mapped = groups.get(group);
+    if (mapped != null) {
+      target.addAll(mapped);
+      return;
+    }
+    for (Rule rule : rules) {
+      Matcher matcher = rule.pattern.matcher(group);
+      if (matcher.matches()) {
+        target.add(matcher.replaceFirst(rule.replacement));
+        return;
+      }
+    }
+    target.add(group);
+  }
+
+  public int size() {
+    return groups.size() + rules.size();
+  }
+
+  public static final class Builder {
+    private final Map<String, List<String>> groups = new HashMap<>();
+    private final List<Rule> rules = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * Adds the mappings of the given source (used in error messages). Empty lines and lines starting with
+     * <code>#</code> are ignored.
+     *
+     * @throws IllegalStateException if a mapping is invalid
+     */
+    public Builder add(String source, Iterable<String> mappings) {
+      int lineNumber = 0;
+      for (String mapping : mappings) {
+        lineNumber++;
+        String line = mapping.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        int separator = line.lastIndexOf('=');
+        if (separator <= 0 || separator == line.length() - 1) {
+          throw new IllegalStateException("Invalid group mapping in " + source + ", line " + lineNumber + ": '"
+              + line + "'");
+        }
+        String group = line.substring(0, separator).trim();
+        String target = line.substring(separator + 1).trim();
+        if (group.startsWith(REGEX_PREFIX)) {
+          try {
+            rules.add(new Rule(Pattern.compile(group.substring(REGEX_PREFIX.length())), target));
+          } catch (PatternSyntaxException e) {
+            throw new IllegalStateException("Invalid group mapping in " + source + ", line " + lineNumber + ": "
+                + e.getDescription(), e);
+          }
+        } else {
+          groups.computeIfAbsent(group, key -> new ArrayList<>(1)).add(target);
+        }
+      }
+      return this;
+    }
+
+    public GroupMapping build() {
+      return groups.isEmpty() && rules.isEmpty() ? IDENTITY
+          : new GroupMapping(new HashMap<>(groups), new ArrayList<>(rules));
+    }
+  }
+
+  private static final class Rule {
+    private final Pattern pattern;
+    private final String replacement;
+
+    private Rule(Pattern pattern, String replacement) {
+      this.pattern = pattern;
+      this.replacement = replacement;
+    }
+  }
+
+}
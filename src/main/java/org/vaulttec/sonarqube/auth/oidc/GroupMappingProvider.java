@@ -0,0 +1,169 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Objects;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Provides the {@link GroupMapping} compiled from the mappings of the configuration and the mapping file. The
+ * mapping is compiled again if the configuration changed or if the mapping file was modified (which is checked at
+ * most every {@link #FILE_CHECK_INTERVAL} ms), so changes take effect without a restart.
+ * <p>
+ * If a modified mapping file can't be read then the previous mapping is kept.
+ */
+public class GroupMappingProvider {
+
+  private static final Logger LOGGER = Loggers.get(GroupMappingProvider.class);
+
+  static final long FILE_CHECK_INTERVAL = 10_000;
+
+  private final OidcConfiguration config;
+  private final System2 system2;
+  private final Object lock = new Object();
+
+  private volatile Compiled compiled;
+
+  public GroupMappingProvider(OidcConfiguration config, System2 system2) {
+    this.config = config;
+    this.system2 = system2;
+  }
+
+  public GroupMapping get() {
+    ConfigurationSnapshot settings = config.snapshot();
+    List<String> mappings = settings.getSyncGroupsMapping();
+    String file = settings.getSyncGroupsMappingFile();
+    Compiled current = compiled;
+    long now = system2.now();
+    if (current != null && current.matches(mappings, file)
+        && (file == null || now < current.checkedAt + FILE_CHECK_INTERVAL)) {
+      return current.mapping;
+    }
+    synchronized (lock) {
+      current = compiled;
+      if (current != null && current.matches(mappings, file)) {
+        if (file == null || now < current.checkedAt + FILE_CHECK_INTERVAL) {
+          return current.mapping;
+        }
+        FileVersion version = FileVersion.of(Paths.get(file));
+        if (version != null && version.equals(current.fileVersion)) {
+          compiled = new Compiled(mappings, file, version, current.mapping, now);
+          return current.mapping;
+        }
+      }
+      try {
+        compiled = compile(mappings, file, now);
+      } catch (IllegalStateException e) {
+        if (current == null || !current.matches(mappings, file)) {
+          throw e;
+        }
+        LOGGER.warn("Reloading group mapping failed - keeping previous mapping: {}", e.getMessage());
+        compiled = new Compiled(mappings, file, current.fileVersion, current.mapping, now);
+      }
+      return compiled.mapping;
+    }
+  }
+
+  private static Compiled compile(List<String> mappings, @Nullable String file, long now) {
+    GroupMapping.Builder builder = GroupMapping.builder().add("configuration", mappings);
+    FileVersion version = null;
+    if (file != null) {
+      Path path = Paths.get(file);
+      version = FileVersion.of(path);
+      try (BufferedReader reader = Files.newBufferedReader(path, StandardCharsets.UTF_8)) {
+        builder.add("file '" + file + "'", reader.lines()::iterator);
+      } catch (IOException | UncheckedIOException e) {
+        throw new IllegalStateException("Reading group mapping file '" + file + "' failed: " + e.getMessage(), e);
+      }
+    }
+    GroupMapping mapping = builder.build();
+    if (file != null || mapping.size() > 0) {
+      LOGGER.info("Loaded {} group mappings", mapping.size());
+    }
+    return new Compiled(mappings, file, version, mapping, now);
+  }
+
+  private static final class Compiled {
+    private final List<String> mappings;
+    private final String file;
+    private final FileVersion fileVersion;
+    private final GroupMapping mapping;
+    private final long checkedAt;
+
+    private Compiled(List<String> mappings, @Nullable String file, @Nullable FileVersion fileVersion,
+        GroupMapping mapping, long checkedAt) {
+      this.mappings = mappings;
+      this.file = file;
+      this.fileVersion = fileVersion;
+      this.mapping = mapping;
+      this.checkedAt = checkedAt;
+    }
+
+    private boolean matches(List<String> otherMappings, @Nullable String otherFile) {
+      return mappings.equals(otherMappings) && Objects.equals(file, otherFile);
+    }
+  }
+
+  private static final class FileVersion {
+    private final long lastModified;
+    private final long size;
+
+    private FileVersion(long lastModified, long size) {
+      this.lastModified = lastModified;
+      this.size = size;
+    }
+
+    @CheckForNull
+    static FileVersion of(Path path) {
+      try {
+        return new FileVersion(Files.getLastModifiedTime(path).toMillis(), Files.size(path));
+      } catch (IOException e) {
+        return null;
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof FileVersion)) {
+        return false;
+      }
+      FileVersion other = (FileVersion) o;
+      return lastModified == other.lastModified && size == other.size;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(lastModified, size);
+    }
+  }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Locale;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPRequestConfigurator;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+/**
+ * A document retrieved from the identity provider together with the HTTP caching information of its response. The
+ * validators (<code>ETag</code> and <code>Last-Modified</code>) are used for conditional requests, so unchanged
+ * documents are neither transferred nor parsed again.
+ */
+public class HttpResource<T> {
+
+  static final int SC_NOT_MODIFIED = 304;
+
+  private final T value;
+  private final String eTag;
+  private final String lastModified;
+  private final Long maxAge;
+
+  HttpResource(T value, @Nullable String eTag, @Nullable String lastModified, @Nullable Long maxAge) {
+    this.value = value;
+    this.eTag = eTag;
+    this.lastModified = lastModified;
+    this.maxAge = maxAge;
+  }
+
+  public static <T> HttpResource<T> of(T value) {
+    return new HttpResource<>(value, null, null, null);
+  }
+
+  /**
+   * Retrieves the document from the given URL. If a previously retrieved resource is given then its validators are
+   * sent, and if the identity provider responds with <code>304 Not Modified</code> the previous value is reused.
+   */
+  public static <T> HttpResource<T> fetch(HttpTransport transport, HTTPRequestConfigurator configurator, URL url,
+      @Nullable HttpResource<T> previous, Parser<T> parser) throws IOException, ParseException {
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, url);
+    configurator.configure(request);
+    if (previous != null) {
+      if (previous.eTag != null) {
+        request.setHeader("If-None-Match", previous.eTag);
+      }
+      if (previous.lastModified != null) {
+        request.setHeader("If-Modified-Since", previous.lastModified);
+      }
+    }
+    HTTPResponse response = transport.send(request);
+    if (previous != null && response.getStatusCode() == SC_NOT_MODIFIED) {
+      return new HttpResource<>(previous.value, firstNonNull(response.getHeaderValue("ETag"), previous.eTag),
+          firstNonNull(response.getHeaderValue("Last-Modified"), previous.lastModified),
+          parseMaxAge(response.getCacheControl()));
+    }
+    response.ensureStatusCode(HTTPResponse.SC_OK);
+    return new HttpResource<>(parser.parse(response), response.getHeaderValue("ETag"),
+        response.getHeaderValue("Last-Modified"), parseMaxAge(response.getCacheControl()));
+  }
+
+  public T getValue() {
+    return value;
+  }
+
+  @CheckForNull
+  public String getETag() {
+    return eTag;
+  }
+
+  @CheckForNull
+  public String getLastModified() {
+    return lastModified;
+  }
+
+  /**
+   * Returns the value (in seconds) of the <code>max-age</code> directive of the response's <code>Cache-Control</code>
+   * header, <code>0</code> for <code>no-cache</code> or <code>no-store</code>, or <code>null</code> if the response
+   * didn't contain any of these directives.
+   */
+  @CheckForNull
+  public Long getMaxAge() {
+    return maxAge;
+  }
+
+  @CheckForNull
+  static Long parseMaxAge(@Nullable String cacheControl) {
+    if (cacheControl == null) {
+      return null;
+    }
+    for (String directive : cacheControl.split(",")) {
+      String trimmed = directive.trim().toLowerCase(Locale.ROOT);
+      if ("no-cache".equals(trimmed) || "no-store".equals(trimmed)) {
+        return 0L;
+      }
+      if (trimmed.startsWith("max-age=")) {
+        try {
+          return Math.max(0, Long.parseLong(trimmed.substring("max-age=".length()).replace("\"", "")));
+        } catch (NumberFormatException e) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  @CheckForNull
+  private static String firstNonNull(@Nullable String first, @Nullable String second) {
+    return first != null ? first : second;
+  }
+
+  @FunctionalInterface
+  public interface Parser<T> {
+    T parse(HTTPResponse response) throws ParseException;
+  }
+
+}
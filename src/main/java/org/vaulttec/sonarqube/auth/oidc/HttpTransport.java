@@ -0,0 +1,87 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+/**
+ * Sends the HTTP requests to the identity provider.
+ */
+public interface HttpTransport {
+
+  /**
+   * Sends the request and passes the response to the given handler. The response content is provided as stream which
+   * is limited to the transport's maximum response size.
+   */
+  <T, E extends Exception> T send(HTTPRequest request, ResponseHandler<T, E> handler) throws IOException, E;
+
+  /**
+   * Sends the request and returns the response with its (size-limited) content read into memory.
+   */
+  default HTTPResponse send(HTTPRequest request) throws IOException {
+    return send(request, HttpTransport::buffer);
+  }
+
+  /**
+   * Reads the given content into the given response.
+   */
+  static HTTPResponse buffer(HTTPResponse response, InputStream content) throws IOException {
+    ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    byte[] bytes = new byte[8192];
+    int read;
+    while ((read = content.read(bytes)) != -1) {
+      buffer.write(bytes, 0, read);
+    }
+    if (buffer.size() > 0) {
+      Charset charset = StandardCharsets.UTF_8;
+      if (response.getEntityContentType() != null) {
+        for (ContentType.Parameter parameter : response.getEntityContentType().getParameters()) {
+          if ("charset".equalsIgnoreCase(parameter.getName())) {
+            try {
+              charset = Charset.forName(parameter.getValue());
+            } catch (IllegalArgumentException e) {
+              // Unsupported charset - use default
+            }
+          }
+        }
+      }
+      response.setContent(new String(buffer.toByteArray(), charset));
+    }
+    return response;
+  }
+
+  @FunctionalInterface
+  interface ResponseHandler<T, E extends Exception> {
+
+    /**
+     * @param response the status and headers of the response (without content)
+     * @param content the response content (empty if the response has none)
+     */
+    T handle(HTTPResponse response, InputStream content) throws IOException, E;
+
+  }
+
+}
@@ -0,0 +1,134 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiFunction;
+
+import javax.annotation.Nullable;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jose.proc.DefaultJOSEObjectTypeVerifier;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.jwt.proc.DefaultJWTClaimsVerifier;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.validators.IDTokenClaimsVerifier;
+
+/**
+ * Validates the signature and the claims of signed ID tokens. In contrast to Nimbus' <code>IDTokenValidator</code>
+ * the {@link JWSVerifier}s are provided by the given source (by key ID), so they can be created once per key instead
+ * of once per ID token.
+ * <p>
+ * JWT access tokens (e.g. issued by Keycloak or Azure AD) are validated with the same keys. As their audience is the
+ * resource server and not the client only the issuer and the expiration time are checked. Access tokens are rejected
+ * if the ID token algorithm is symmetric, as they aren't signed with the client secret.
+ */
+public class IdTokenVerifier {
+
+  static final int MAX_CLOCK_SKEW = 60;
+
+  private static final DefaultJOSEObjectTypeVerifier<SecurityContext> ID_TOKEN_TYPE_VERIFIER =
+      new DefaultJOSEObjectTypeVerifier<>(JOSEObjectType.JWT, null);
+  private static final DefaultJOSEObjectTypeVerifier<SecurityContext> ACCESS_TOKEN_TYPE_VERIFIER =
+      new DefaultJOSEObjectTypeVerifier<>(JOSEObjectType.JWT, new JOSEObjectType("at+jwt"), null);
+
+  private final JWSAlgorithm algorithm;
+  private final BiFunction<String, Deadline, List<JWSVerifier>> verifierSource;
+  private final IDTokenClaimsVerifier claimsVerifier;
+  private final DefaultJWTClaimsVerifier<SecurityContext> accessTokenClaimsVerifier;
+
+  public IdTokenVerifier(Issuer issuer, ClientID clientId, JWSAlgorithm algorithm,
+      BiFunction<String, Deadline, List<JWSVerifier>> verifierSource) {
+    this.algorithm = algorithm;
+    this.verifierSource = verifierSource;
+    this.claimsVerifier = new IDTokenClaimsVerifier(issuer, clientId, null, MAX_CLOCK_SKEW);
+    this.accessTokenClaimsVerifier = new DefaultJWTClaimsVerifier<>(null,
+        new JWTClaimsSet.Builder().issuer(issuer.getValue()).build(), Collections.singleton("exp"));
+    accessTokenClaimsVerifier.setMaxClockSkew(MAX_CLOCK_SKEW);
+  }
+
+  /**
+   * Validates the given ID token. Keys which aren't available yet are retrieved within the given deadline.
+   */
+  public void validate(JWT idToken, @Nullable Deadline deadline) throws BadJOSEException, JOSEException {
+    SignedJWT signedIdToken = verifySignature(idToken, "ID token", ID_TOKEN_TYPE_VERIFIER, deadline);
+    try {
+      claimsVerifier.verify(signedIdToken.getJWTClaimsSet(), null);
+    } catch (java.text.ParseException e) {
+      throw new BadJWTException("Invalid ID token claims: " + e.getMessage(), e);
+    }
+  }
+
+  /**
+   * Validates the given JWT access token. Keys which aren't available yet are retrieved within the given deadline.
+   */
+  public void validateAccessToken(JWT accessToken, @Nullable Deadline deadline) throws BadJOSEException, JOSEException {
+    if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+      throw new BadJOSEException("Signed access token rejected: Access tokens can't be verified with " + algorithm);
+    }
+    SignedJWT signedAccessToken = verifySignature(accessToken, "access token", ACCESS_TOKEN_TYPE_VERIFIER, deadline);
+    try {
+      accessTokenClaimsVerifier.verify(signedAccessToken.getJWTClaimsSet(), null);
+    } catch (java.text.ParseException e) {
+      throw new BadJWTException("Invalid access token claims: " + e.getMessage(), e);
+    }
+  }
+
+  private SignedJWT verifySignature(JWT token, String kind, DefaultJOSEObjectTypeVerifier<SecurityContext> typeVerifier,
+      @Nullable Deadline deadline) throws BadJOSEException, JOSEException {
+    if (!(token instanceof SignedJWT)) {
+      throw new BadJOSEException("Signed " + kind + " expected");
+    }
+    SignedJWT signedToken = (SignedJWT) token;
+    JWSHeader header = signedToken.getHeader();
+    typeVerifier.verify(header.getType(), null);
+    if (!algorithm.equals(header.getAlgorithm())) {
+      throw new BadJOSEException("Signed " + kind + " rejected: Unexpected JWS algorithm " + header.getAlgorithm());
+    }
+    List<JWSVerifier> verifiers = verifierSource.apply(header.getKeyID(), deadline);
+    if (verifiers.isEmpty()) {
+      throw new BadJOSEException("Signed " + kind + " rejected: No matching key(s) found");
+    }
+    if (!verify(signedToken, verifiers)) {
+      throw new BadJWSException("Signed " + kind + " rejected: Invalid signature");
+    }
+    return signedToken;
+  }
+
+  private static boolean verify(SignedJWT idToken, List<JWSVerifier> verifiers) throws JOSEException {
+    for (JWSVerifier verifier : verifiers) {
+      if (idToken.verify(verifier)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+}
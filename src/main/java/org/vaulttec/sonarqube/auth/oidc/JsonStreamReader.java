@@ -0,0 +1,102 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.nimbusds.oauth2.sdk.ParseException;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+/**
+ * Reads a JSON object from a stream without building a tree of the whole document first. Only the members with the
+ * given names are kept - all other members are skipped while reading, so e.g. huge unused claims don't end up on the
+ * heap.
+ */
+public final class JsonStreamReader {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  private JsonStreamReader() {
+  }
+
+  /**
+   * Reads a JSON object and keeps only the top-level members with the given names (or all members if
+   * <code>null</code>).
+   */
+  public static JSONObject readObject(InputStream in, @Nullable Set<String> names) throws IOException, ParseException {
+    try (JsonParser parser = JSON_FACTORY.createParser(in)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        throw new ParseException("Invalid JSON: Object expected");
+      }
+      JSONObject object = new JSONObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        if (names == null || names.contains(name)) {
+          object.put(name, readValue(parser));
+        } else {
+          parser.skipChildren();
+        }
+      }
+      return object;
+    } catch (JsonProcessingException e) {
+      throw new ParseException("Invalid JSON: " + e.getOriginalMessage(), e);
+    }
+  }
+
+  private static Object readValue(JsonParser parser) throws IOException {
+    switch (parser.currentToken()) {
+    case START_OBJECT:
+      JSONObject object = new JSONObject();
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        String name = parser.getCurrentName();
+        parser.nextToken();
+        object.put(name, readValue(parser));
+      }
+      return object;
+    case START_ARRAY:
+      JSONArray array = new JSONArray();
+      while (parser.nextToken() != JsonToken.END_ARRAY) {
+        array.add(readValue(parser));
+      }
+      return array;
+    case VALUE_STRING:
+      return parser.getText();
+    case VALUE_NUMBER_INT:
+    case VALUE_NUMBER_FLOAT:
+      return parser.getNumberValue();
+    case VALUE_TRUE:
+      return Boolean.TRUE;
+    case VALUE_FALSE:
+      return Boolean.FALSE;
+    default:
+      return null;
+    }
+  }
+
+}
@@ -0,0 +1,194 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Thread-safe source of the signature verifiers for the keys in the provider's JWK set. The verifiers are created
+ * once per key and supported algorithm (RSA and ECDSA using SHA-256) and kept in an immutable index by key ID, which
+ * is replaced when the cached JWK set changes.
+ * <p>
+ * If a requested key ID is unknown (e.g. after a key rotation) then the JWK set is reloaded - but at most once per
+ * {@link #MIN_RELOAD_INTERVAL}, so forged key IDs can't be used to flood the identity provider with requests.
+ */
+public class JwkSetKeySource {
+
+  private static final Logger LOGGER = Loggers.get(JwkSetKeySource.class);
+
+  static final long MIN_RELOAD_INTERVAL = 60_000;
+
+  private final String jwkSetUri;
+  private final ResourceCache<JWKSet> jwkSetCache;
+  private final System2 system2;
+  private final AtomicLong lastReload;
+
+  private volatile VerifierIndex verifierIndex = new VerifierIndex(new JWKSet());
+
+  public JwkSetKeySource(String jwkSetUri, ResourceCache<JWKSet> jwkSetCache, System2 system2) {
+    this.jwkSetUri = jwkSetUri;
+    this.jwkSetCache = jwkSetCache;
+    this.system2 = system2;
+    this.lastReload = new AtomicLong(system2.now() - MIN_RELOAD_INTERVAL);
+  }
+
+  public String getJwkSetUri() {
+    return jwkSetUri;
+  }
+
+  /**
+   * Returns the verifiers for the given algorithm and key ID. Without key ID the verifiers of all keys suitable for the
+   * given algorithm are returned. A JWK set which isn't cached is retrieved within the given deadline.
+   */
+  public List<JWSVerifier> getVerifiers(JWSAlgorithm algorithm, @Nullable String keyId,
+      @Nullable Deadline deadline) {
+    List<JWSVerifier> verifiers = getVerifierIndex(jwkSetCache.get(jwkSetUri, deadline)).get(algorithm, keyId);
+    if (verifiers.isEmpty() && keyId != null && tryReload()) {
+      LOGGER.debug("Unknown key ID '{}' - reloading JWK set from {}", keyId, jwkSetUri);
+      try {
+        verifiers = getVerifierIndex(jwkSetCache.reload(jwkSetUri, deadline)).get(algorithm, keyId);
+      } catch (RuntimeException e) {
+        LOGGER.warn("Reloading JWK set from {} failed: {}", jwkSetUri, e.getMessage());
+      }
+    }
+    return verifiers;
+  }
+
+  private boolean tryReload() {
+    long now = system2.now();
+    long last = lastReload.get();
+    return now - last >= MIN_RELOAD_INTERVAL && lastReload.compareAndSet(last, now);
+  }
+
+  private VerifierIndex getVerifierIndex(JWKSet jwkSet) {
+    VerifierIndex current = verifierIndex;
+    if (current.jwkSet != jwkSet) {
+      current = new VerifierIndex(jwkSet);
+      verifierIndex = current;
+    }
+    return current;
+  }
+
+  private enum SupportedAlgorithm {
+    RS256(JWSAlgorithm.RS256), ES256(JWSAlgorithm.ES256);
+
+    private final JWSAlgorithm algorithm;
+
+    SupportedAlgorithm(JWSAlgorithm algorithm) {
+      this.algorithm = algorithm;
+    }
+
+    @Nullable
+    private static SupportedAlgorithm of(JWSAlgorithm algorithm) {
+      return Arrays.stream(values()).filter(a -> a.algorithm.equals(algorithm)).findFirst().orElse(null);
+    }
+
+    @Nullable
+    private JWSVerifier createVerifier(JWK key) throws JOSEException {
+      if (key.getAlgorithm() != null && !key.getAlgorithm().equals(algorithm)) {
+        return null;
+      }
+      if (this == RS256 && key instanceof RSAKey) {
+        return new RSASSAVerifier((RSAKey) key);
+      } else if (this == ES256 && key instanceof ECKey && Curve.P_256.equals(((ECKey) key).getCurve())) {
+        return new ECDSAVerifier((ECKey) key);
+      }
+      return null;
+    }
+  }
+
+  private static class VerifierIndex {
+    private final JWKSet jwkSet;
+    private final Map<SupportedAlgorithm, Map<String, List<JWSVerifier>>> verifiersById;
+    private final Map<SupportedAlgorithm, List<JWSVerifier>> verifiers;
+
+    private VerifierIndex(JWKSet jwkSet) {
+      this.jwkSet = jwkSet;
+      Map<SupportedAlgorithm, Map<String, List<JWSVerifier>>> byId = new EnumMap<>(SupportedAlgorithm.class);
+      Map<SupportedAlgorithm, List<JWSVerifier>> all = new EnumMap<>(SupportedAlgorithm.class);
+      for (SupportedAlgorithm algorithm : SupportedAlgorithm.values()) {
+        Map<String, List<JWSVerifier>> algorithmById = new HashMap<>();
+        List<JWSVerifier> algorithmVerifiers = new ArrayList<>();
+        for (JWK key : jwkSet.getKeys()) {
+          JWSVerifier verifier = createVerifier(algorithm, key);
+          if (verifier != null) {
+            algorithmVerifiers.add(verifier);
+            if (key.getKeyID() != null) {
+              algorithmById.computeIfAbsent(key.getKeyID(), id -> new ArrayList<>()).add(verifier);
+            }
+          }
+        }
+        algorithmById.replaceAll((id, list) -> Collections.unmodifiableList(list));
+        byId.put(algorithm, Collections.unmodifiableMap(algorithmById));
+        all.put(algorithm, Collections.unmodifiableList(algorithmVerifiers));
+      }
+      this.verifiersById = Collections.unmodifiableMap(byId);
+      this.verifiers = Collections.unmodifiableMap(all);
+    }
+
+    @Nullable
+    private static JWSVerifier createVerifier(SupportedAlgorithm algorithm, JWK key) {
+      if (key.getKeyUse() != null && !KeyUse.SIGNATURE.equals(key.getKeyUse())) {
+        return null;
+      }
+      try {
+        return algorithm.createVerifier(key);
+      } catch (JOSEException e) {
+        LOGGER.debug("Ignoring key '{}' for {}: {}", key.getKeyID(), algorithm, e.getMessage());
+        return null;
+      }
+    }
+
+    private List<JWSVerifier> get(JWSAlgorithm algorithm, @Nullable String keyId) {
+      SupportedAlgorithm supportedAlgorithm = SupportedAlgorithm.of(algorithm);
+      if (supportedAlgorithm == null) {
+        return Collections.emptyList();
+      }
+      if (keyId == null) {
+        return verifiers.get(supportedAlgorithm);
+      }
+      return verifiersById.get(supportedAlgorithm).getOrDefault(keyId, Collections.emptyList());
+    }
+  }
+
+}
@@ -0,0 +1,331 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.naming.AuthenticationException;
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+import javax.naming.ldap.Control;
+import javax.naming.ldap.InitialLdapContext;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.PagedResultsControl;
+import javax.naming.ldap.PagedResultsResponseControl;
+
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Looks up additional groups of a user in an LDAP directory, e.g. group memberships which never appear in the claims.
+ * <p>
+ * The directory connections are kept in a pool (of at most {@link #POOL_SIZE} connections) which is recreated if the
+ * connection settings change. If all connections are in use then a search waits for a free one within the connect
+ * timeout. Like the HTTP timeouts, the connect and read timeouts of a new connection are reduced to the remaining time
+ * of the login (a pooled connection keeps the read timeout it was opened with). The groups are searched with the
+ * simple paged results control (if supported by the directory), and the found groups are cached per subject.
+ */
+public class LdapGroupEnricher implements Closeable {
+
+  private static final Logger LOGGER = Loggers.get(LdapGroupEnricher.class);
+
+  static final int POOL_SIZE = 8;
+  static final int PAGE_SIZE = 500;
+  private static final String DN_ATTRIBUTE = "dn";
+  private static final String CONNECT_TIMEOUT = "com.sun.jndi.ldap.connect.timeout";
+  private static final String READ_TIMEOUT = "com.sun.jndi.ldap.read.timeout";
+
+  private final OidcConfiguration config;
+  private final ExpiringCache<Set<String>> cache;
+  private final Object poolLock = new Object();
+  private ContextPool pool;
+
+  public LdapGroupEnricher(OidcConfiguration config, System2 system2) {
+    this.config = config;
+    this.cache = new ExpiringCache<>(config.syncGroupsCacheSize(),
+        () -> TimeUnit.SECONDS.toMillis(config.snapshot().getLdapCacheTtl()), system2);
+  }
+
+  public boolean isEnabled() {
+    return config.snapshot().getLdapUrl() != null;
+  }
+
+  /**
+   * Returns the groups of the given user found in the directory within the given deadline of the login, or
+   * <code>null</code> if the directory couldn't be searched.
+   *
+   * @throws IllegalStateException if the deadline is exceeded
+   */
+  @CheckForNull
+  public Set<String> getGroups(String subject, String login, @Nullable String email, Deadline deadline) {
+    Set<String> groups = cache.get(subject);
+    if (groups != null) {
+      LOGGER.debug("Using cached LDAP groups");
+      return groups;
+    }
+    Object[] filterArgs = { login, subject, email != null ? email : "" };
+    try {
+      try {
+        groups = search(filterArgs, deadline);
+      } catch (AuthenticationException e) {
+        throw e;
+      } catch (NamingException e) {
+        // The pooled connection may have been closed by the directory in the meantime
+        LOGGER.debug("Retrying LDAP search with new connection: {}", e.getMessage());
+        groups = search(filterArgs, deadline);
+      }
+    } catch (NamingException | IOException e) {
+      LOGGER.warn("Searching LDAP groups failed - groups aren't synchronized: {}", e.getMessage());
+      return null;
+    }
+    LOGGER.debug("Found {} LDAP groups", groups.size());
+    groups = Collections.unmodifiableSet(groups);
+    cache.put(subject, groups);
+    return groups;
+  }
+
+  private Set<String> search(Object[] filterArgs, Deadline deadline) throws NamingException, IOException {
+    ConfigurationSnapshot settings = config.snapshot();
+    ContextPool contextPool = getPool(settings);
+    int connectTimeout = deadline.limit(toMillis(settings.getHttpConnectTimeout()));
+    int readTimeout = deadline.limit(toMillis(settings.getUserInfoReadTimeout()));
+    LdapContext context = contextPool.borrow(connectTimeout, readTimeout);
+    boolean valid = false;
+    try {
+      String attribute = settings.getLdapGroupNameAttribute();
+      boolean dn = DN_ATTRIBUTE.equalsIgnoreCase(attribute);
+      SearchControls controls = new SearchControls();
+      controls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+      controls.setReturningAttributes(dn ? new String[0] : new String[] { attribute });
+      Set<String> groups = new HashSet<>();
+      byte[] cookie = null;
+      do {
+        context.setRequestControls(new Control[] { new PagedResultsControl(PAGE_SIZE, cookie, Control.NONCRITICAL) });
+        NamingEnumeration<SearchResult> results = context.search(settings.getLdapGroupSearchBase(),
+            settings.getLdapGroupSearchFilter(), filterArgs, controls);
+        try {
+          while (results.hasMore()) {
+            addGroupNames(results.next(), attribute, dn, groups);
+          }
+        } finally {
+          results.close();
+        }
+        cookie = getCookie(context.getResponseControls());
+      } while (cookie != null && cookie.length > 0);
+      context.setRequestControls(null);
+      valid = true;
+      return groups;
+    } finally {
+      contextPool.release(context, valid);
+    }
+  }
+
+  private static void addGroupNames(SearchResult result, String attribute, boolean dn, Set<String> groups)
+      throws NamingException {
+    if (dn) {
+      groups.add(result.getNameInNamespace());
+      return;
+    }
+    Attribute names = result.getAttributes().get(attribute);
+    if (names != null) {
+      for (int i = 0; i < names.size(); i++) {
+        if (names.get(i) != null) {
+          groups.add(names.get(i).toString());
+        }
+      }
+    }
+  }
+
+  @CheckForNull
+  private static byte[] getCookie(@Nullable Control[] controls) {
+    if (controls != null) {
+      for (Control control : controls) {
+        if (control instanceof PagedResultsResponseControl) {
+          return ((PagedResultsResponseControl) control).getCookie();
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Returns the connection pool for the current settings. A pool for outdated settings is closed.
+   */
+  private ContextPool getPool(ConfigurationSnapshot settings) {
+    String url = settings.getLdapUrl();
+    String bindDn = settings.getLdapBindDn();
+    String bindPassword = settings.getLdapBindPassword();
+    synchronized (poolLock) {
+      if (pool == null || !pool.matches(url, bindDn, bindPassword)) {
+        if (pool != null) {
+          pool.close();
+        }
+        pool = new ContextPool(url, bindDn, bindPassword, createEnvironment(url, bindDn, bindPassword));
+      }
+      return pool;
+    }
+  }
+
+  private static Hashtable<String, Object> createEnvironment(@Nullable String url, @Nullable String bindDn,
+      @Nullable String bindPassword) {
+    Hashtable<String, Object> env = new Hashtable<>();
+    env.put(Context.INITIAL_CONTEXT_FACTORY, "com.sun.jndi.ldap.LdapCtxFactory");
+    env.put(Context.PROVIDER_URL, Objects.requireNonNull(url, "LDAP URL is missing"));
+    if (bindDn != null) {
+      env.put(Context.SECURITY_AUTHENTICATION, "simple");
+      env.put(Context.SECURITY_PRINCIPAL, bindDn);
+      env.put(Context.SECURITY_CREDENTIALS, bindPassword != null ? bindPassword : "");
+    } else {
+      env.put(Context.SECURITY_AUTHENTICATION, "none");
+    }
+    return env;
+  }
+
+  private static int toMillis(long seconds) {
+    return (int) Math.min(TimeUnit.SECONDS.toMillis(Math.max(0, seconds)), Integer.MAX_VALUE);
+  }
+
+  int cacheSize() {
+    return cache.size();
+  }
+
+  @Override
+  public void close() {
+    synchronized (poolLock) {
+      if (pool != null) {
+        pool.close();
+        pool = null;
+      }
+    }
+  }
+
+  private static final class ContextPool {
+    private final String url;
+    private final String bindDn;
+    private final String bindPassword;
+    private final Hashtable<String, Object> env;
+    private final BlockingQueue<LdapContext> idleContexts = new ArrayBlockingQueue<>(POOL_SIZE);
+    private final Semaphore permits = new Semaphore(POOL_SIZE);
+    private volatile boolean closed;
+
+    private ContextPool(@Nullable String url, @Nullable String bindDn, @Nullable String bindPassword,
+        Hashtable<String, Object> env) {
+      this.url = url;
+      this.bindDn = bindDn;
+      this.bindPassword = bindPassword;
+      this.env = env;
+    }
+
+    private boolean matches(@Nullable String otherUrl, @Nullable String otherBindDn,
+        @Nullable String otherBindPassword) {
+      return Objects.equals(url, otherUrl) && Objects.equals(bindDn, otherBindDn)
+          && Objects.equals(bindPassword, otherBindPassword);
+    }
+
+    /**
+     * Returns an idle context or opens a new one, waiting at most the given connect timeout (in milliseconds) if all
+     * contexts are in use.
+     */
+    private LdapContext borrow(int connectTimeout, int readTimeout) throws NamingException, IOException {
+      try {
+        if (!permits.tryAcquire(connectTimeout, TimeUnit.MILLISECONDS)) {
+          throw new IOException("No LDAP connection available within " + connectTimeout + " ms");
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for LDAP connection");
+      }
+      LdapContext context = idleContexts.poll();
+      if (context != null) {
+        return context;
+      }
+      Hashtable<String, Object> contextEnv = new Hashtable<>(env);
+      contextEnv.put(CONNECT_TIMEOUT, String.valueOf(connectTimeout));
+      contextEnv.put(READ_TIMEOUT, String.valueOf(readTimeout));
+      try {
+        return new InitialLdapContext(contextEnv, null);
+      } catch (NamingException | RuntimeException e) {
+        permits.release();
+        throw e;
+      }
+    }
+
+    /**
+     * Returns the given context to the pool. It's closed if the pool is full or closed. If it isn't valid anymore then
+     * the idle contexts are closed as well, because they were most likely dropped by the directory too.
+     */
+    private void release(LdapContext context, boolean valid) {
+      try {
+        returnContext(context, valid);
+      } finally {
+        permits.release();
+      }
+    }
+
+    private void returnContext(LdapContext context, boolean valid) {
+      if (!valid) {
+        close(context);
+        closeIdleContexts();
+      } else if (closed || !idleContexts.offer(context)) {
+        close(context);
+      } else if (closed && idleContexts.remove(context)) {
+        // The pool was closed concurrently
+        close(context);
+      }
+    }
+
+    private void close() {
+      closed = true;
+      closeIdleContexts();
+    }
+
+    private void closeIdleContexts() {
+      LdapContext context;
+      while ((context = idleContexts.poll()) != null) {
+        close(context);
+      }
+    }
+
+    private static void close(LdapContext context) {
+      try {
+        context.close();
+      } catch (NamingException e) {
+        LOGGER.debug("Closing LDAP connection failed: {}", e.getMessage());
+      }
+    }
+  }
+
+}
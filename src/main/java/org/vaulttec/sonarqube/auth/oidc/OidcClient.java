@@ -17,18 +17,48 @@
  */
 package org.vaulttec.sonarqube.auth.oidc;
 
+import java.io.Closeable;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 
+import com.nimbusds.common.contenttype.ContentType;
 import com.nimbusds.jose.JOSEException;
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.jwk.JWKSet;
 import com.nimbusds.jose.proc.BadJOSEException;
 import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
 import com.nimbusds.oauth2.sdk.AuthorizationCode;
 import com.nimbusds.oauth2.sdk.AuthorizationCodeGrant;
 import com.nimbusds.oauth2.sdk.ErrorObject;
@@ -36,18 +66,17 @@ import com.nimbusds.oauth2.sdk.GeneralException;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.ResponseType;
 import com.nimbusds.oauth2.sdk.ResponseType.Value;
-import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.oauth2.sdk.TokenErrorResponse;
 import com.nimbusds.oauth2.sdk.TokenRequest;
 import com.nimbusds.oauth2.sdk.TokenResponse;
 import com.nimbusds.oauth2.sdk.auth.ClientSecretBasic;
-import com.nimbusds.oauth2.sdk.auth.Secret;
 import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.http.HTTPResponse;
 import com.nimbusds.oauth2.sdk.http.ServletUtils;
 import com.nimbusds.oauth2.sdk.id.ClientID;
 import com.nimbusds.oauth2.sdk.id.Issuer;
 import com.nimbusds.oauth2.sdk.id.State;
+import com.nimbusds.oauth2.sdk.token.AccessToken;
 import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
 import com.nimbusds.openid.connect.sdk.AuthenticationErrorResponse;
 import com.nimbusds.openid.connect.sdk.AuthenticationRequest;
@@ -55,40 +84,171 @@ import com.nimbusds.openid.connect.sdk.AuthenticationRequest.Builder;
 import com.nimbusds.openid.connect.sdk.AuthenticationResponse;
 import com.nimbusds.openid.connect.sdk.AuthenticationResponseParser;
 import com.nimbusds.openid.connect.sdk.AuthenticationSuccessResponse;
+import com.nimbusds.openid.connect.sdk.OIDCClaimsRequest;
 import com.nimbusds.openid.connect.sdk.OIDCTokenResponse;
 import com.nimbusds.openid.connect.sdk.OIDCTokenResponseParser;
 import com.nimbusds.openid.connect.sdk.UserInfoErrorResponse;
 import com.nimbusds.openid.connect.sdk.UserInfoRequest;
 import com.nimbusds.openid.connect.sdk.UserInfoResponse;
 import com.nimbusds.openid.connect.sdk.UserInfoSuccessResponse;
+import com.nimbusds.openid.connect.sdk.claims.ClaimsSetRequest;
 import com.nimbusds.openid.connect.sdk.claims.UserInfo;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import com.nimbusds.openid.connect.sdk.token.OIDCTokens;
-import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
 
+import org.sonar.api.Startable;
 import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
 import org.sonar.api.utils.log.Logger;
 import org.sonar.api.utils.log.Loggers;
+import org.vaulttec.sonarqube.auth.oidc.HttpTransport.ResponseHandler;
+
+import net.minidev.json.JSONObject;
 
 @ServerSide
-public class OidcClient {
+public class OidcClient implements Startable {
 
   private static final Logger LOGGER = Loggers.get(OidcClient.class);
 
   private static final ResponseType RESPONSE_TYPE = new ResponseType(Value.CODE);
+  private static final int CALLBACK_THREADS = 8;
+  private static final int CALLBACK_QUEUE_SIZE = 32;
+  private static final Set<String> TOKEN_RESPONSE_MEMBERS = new HashSet<>(Arrays.asList("access_token",
+      "token_type", "expires_in", "refresh_token", "scope", "id_token", "error", "error_description", "error_uri"));
+  private static final String GRAPH_VALUE = "value";
+  private static final String GRAPH_NEXT_LINK = "@odata.nextLink";
+  private static final String GRAPH_TYPE = "@odata.type";
+  private static final int MAX_DISTRIBUTED_CLAIM_PAGES = 500;
   private final OidcConfiguration config;
+  private final HttpTransport httpTransport;
+  private final int maxLoginRequests;
+  private final Semaphore loginRequests;
+  private final RetryPolicy retryPolicy;
+  private final ScheduledExecutorService refreshExecutor;
+  private final ExecutorService callbackExecutor;
+  private final ResourceCache<OIDCProviderMetadata> providerMetadataCache;
+  private final ResourceCache<JWKSet> jwkSetCache;
+  private final UserInfoCache userInfoCache;
+  private final UserInfoCache distributedClaimsCache;
+  private volatile JwkSetKeySource jwkSetKeySource;
+  private volatile ClaimCoverage claimCoverage;
+  private volatile CachedVerifier cachedVerifier;
 
   public OidcClient(OidcConfiguration config) {
+    this(config, new PooledHttpTransport(config.httpMaxConnections(), config.httpMaxConnectionsPerHost(),
+        config.httpIdleTimeout(), config.httpMaxResponseSize() * 1024, config.httpCompression()));
+  }
+
+  OidcClient(OidcConfiguration config, HttpTransport httpTransport) {
     this.config = config;
+    this.httpTransport = httpTransport;
+    this.maxLoginRequests = config.httpMaxConcurrentRequests();
+    this.loginRequests = maxLoginRequests > 0 ? new Semaphore(maxLoginRequests) : null;
+    this.retryPolicy = new RetryPolicy(config.httpMaxAttempts());
+    this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("oidc-refresh"));
+    this.callbackExecutor = createCallbackExecutor();
+    this.providerMetadataCache = new ResourceCache<>("provider metadata", this::resolveProviderMetadata,
+        () -> config.snapshot().getProviderMetadataCacheTtl() * 1000,
+        () -> config.snapshot().getCacheGracePeriod() * 1000, refreshExecutor, System2.INSTANCE);
+    this.jwkSetCache = new ResourceCache<>("JWK set", this::retrieveJwkSet,
+        () -> config.snapshot().getJwkSetCacheTtl() * 1000, () -> config.snapshot().getCacheGracePeriod() * 1000,
+        refreshExecutor, System2.INSTANCE);
+    this.userInfoCache = new UserInfoCache(config.userInfoCacheSize(),
+        () -> config.snapshot().getUserInfoCacheTtl() * 1000, System2.INSTANCE);
+    this.distributedClaimsCache = new UserInfoCache(config.distributedClaimsCacheSize(),
+        () -> config.snapshot().getDistributedClaimsCacheTtl() * 1000, System2.INSTANCE);
+  }
+
+  @Override
+  public void start() {
+    // Nothing to do here - the provider metadata is retrieved lazily
+  }
+
+  @Override
+  public void stop() {
+    refreshExecutor.shutdownNow();
+    callbackExecutor.shutdownNow();
+    if (httpTransport instanceof Closeable) {
+      try {
+        ((Closeable) httpTransport).close();
+      } catch (IOException e) {
+        LOGGER.debug("Closing HTTP transport failed: {}", e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Creates the bounded executor for the concurrent IdP requests of the callback. If all threads are busy and the
+   * queue is full then the request is executed by the caller, so a login never fails because of a saturated pool.
+   */
+  private static ExecutorService createCallbackExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(CALLBACK_THREADS, CALLBACK_THREADS, 60, TimeUnit.SECONDS,
+        new ArrayBlockingQueue<>(CALLBACK_QUEUE_SIZE), daemonThreadFactory("oidc-callback"),
+        new ThreadPoolExecutor.CallerRunsPolicy());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Retrieves the provider metadata and (if ID token validation is enabled) the provider's JWK set, so subsequent
+   * logins are served from the caches.
+   */
+  public void warmUp() {
+    OIDCProviderMetadata providerMetadata = getProviderMetadata(null);
+    JWSAlgorithm algorithm = config.snapshot().getIdTokenSignAlgorithm();
+    if (algorithm != null && !JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+      getJwkSet(providerMetadata.getJWKSetURI(), null);
+    }
+  }
+
+  /**
+   * Returns the currently cached provider metadata and JWK set, or <code>null</code> if the provider metadata wasn't
+   * retrieved yet.
+   */
+  @CheckForNull
+  public ProviderSnapshot createSnapshot() {
+    String issuerUri = config.snapshot().getIssuerUri();
+    ResourceCache.Entry<OIDCProviderMetadata> providerMetadata = providerMetadataCache.peek(issuerUri);
+    if (issuerUri == null || providerMetadata == null) {
+      return null;
+    }
+    URI jwkSetURI = providerMetadata.getValue().getJWKSetURI();
+    ResourceCache.Entry<JWKSet> jwkSet = jwkSetURI == null ? null : jwkSetCache.peek(jwkSetURI.toString());
+    if (jwkSet == null) {
+      return new ProviderSnapshot(issuerUri, providerMetadata.getValue(), null, providerMetadata.getLoadedAt());
+    }
+    return new ProviderSnapshot(issuerUri, providerMetadata.getValue(), jwkSet.getValue(),
+        Math.min(providerMetadata.getLoadedAt(), jwkSet.getLoadedAt()));
+  }
+
+  /**
+   * Initializes the caches from the given snapshot if it belongs to the configured issuer. The restored provider
+   * metadata and JWK set are revalidated in the background.
+   */
+  public boolean restore(ProviderSnapshot snapshot) {
+    if (!snapshot.getIssuerUri().equals(config.snapshot().getIssuerUri())
+        || !providerMetadataCache.prime(snapshot.getIssuerUri(), snapshot.getProviderMetadata(),
+            snapshot.getTimestamp())) {
+      return false;
+    }
+    URI jwkSetURI = snapshot.getProviderMetadata().getJWKSetURI();
+    if (jwkSetURI != null && snapshot.getJwkSet() != null) {
+      jwkSetCache.prime(jwkSetURI.toString(), snapshot.getJwkSet(), snapshot.getTimestamp());
+    }
+    return true;
   }
 
   public AuthenticationRequest createAuthenticationRequest(String callbackUrl, String state) {
     AuthenticationRequest request;
     LOGGER.debug("Creating authentication request");
-    OIDCProviderMetadata providerMetadata = getProviderMetadata();
+    ConfigurationSnapshot settings = config.snapshot();
+    OIDCProviderMetadata providerMetadata = getProviderMetadata(Deadline.after(settings.getLoginTimeout()));
     try {
-      Builder builder = new AuthenticationRequest.Builder(RESPONSE_TYPE, getScope(), getClientId(),
-          new URI(callbackUrl));
+      Builder builder = new AuthenticationRequest.Builder(RESPONSE_TYPE, settings.getScope(),
+          settings.getClientId(), new URI(callbackUrl));
+      if (providerMetadata.supportsClaimsParam()) {
+        builder.claims(getClaimsRequest());
+      }
       request = builder.endpointURI(providerMetadata.getAuthorizationEndpointURI()).state(State.parse(state)).build();
     } catch (URISyntaxException e) {
       throw new IllegalStateException("Creating new authentication request failed", e);
@@ -97,6 +257,21 @@ public class OidcClient {
     return request;
   }
 
+  /**
+   * Returns the claims request for the claims used for creating the SonarQube user identity. The claims are requested
+   * for the ID token (so the UserInfo request can be skipped) and for the UserInfo response.
+   */
+  private OIDCClaimsRequest getClaimsRequest() {
+    Set<String> names = new LinkedHashSet<>();
+    config.snapshot().getRequiredClaims().forEach(names::addAll);
+    names.add("email");
+    ClaimsSetRequest claims = new ClaimsSetRequest();
+    for (String name : names) {
+      claims = claims.add(name);
+    }
+    return new OIDCClaimsRequest().withIDTokenClaimsRequest(claims).withUserInfoClaimsRequest(claims);
+  }
+
   public AuthorizationCode getAuthorizationCode(HttpServletRequest callbackRequest) {
     LOGGER.debug("Retrieving authorization code from callback request's query parameters: {}",
         callbackRequest.getQueryString());
@@ -117,20 +292,72 @@ public class OidcClient {
   }
 
   public UserInfo getUserInfo(AuthorizationCode authorizationCode, String callbackUrl) {
+    return getUserInfo(authorizationCode, callbackUrl, Deadline.after(config.snapshot().getLoginTimeout()));
+  }
+
+  /**
+   * Returns the user info for the given authorization code, retrieved within the given deadline of the login.
+   */
+  public UserInfo getUserInfo(AuthorizationCode authorizationCode, String callbackUrl, Deadline deadline) {
     LOGGER.debug("Getting user info for authorization code");
-    OIDCProviderMetadata providerMetadata = getProviderMetadata();
-    OIDCTokens oidcTokens = getOidcTokens(authorizationCode, callbackUrl, providerMetadata);
+    ConfigurationSnapshot settings = config.snapshot();
+    OIDCProviderMetadata providerMetadata = getProviderMetadata(deadline);
+    JWSAlgorithm algorithm = settings.getIdTokenSignAlgorithm();
+    boolean concurrent = settings.isConcurrentCallback();
+    if (concurrent) {
+      prefetchJwkSet(providerMetadata.getJWKSetURI(), algorithm, deadline);
+    }
+    OIDCTokens oidcTokens = getOidcTokens(authorizationCode, callbackUrl, providerMetadata, deadline);
 
-    UserInfo userInfo;
+    UserInfo idTokenClaims;
     try {
-      userInfo = new UserInfo(oidcTokens.getIDToken().getJWTClaimsSet());
+      idTokenClaims = new UserInfo(oidcTokens.getIDToken().getJWTClaimsSet());
     } catch (java.text.ParseException e) {
       throw new IllegalStateException("Parsing ID token failed", e);
     }
-    if (((userInfo.getName() == null) && (userInfo.getPreferredUsername() == null))
-        || (config.syncGroups() && userInfo.getClaim(config.syncGroupsClaimName()) == null)) {
-      UserInfoResponse userInfoResponse = getUserInfoResponse(providerMetadata.getUserInfoEndpointURI(),
-          oidcTokens.getBearerAccessToken());
+    Map<String, ClaimSource> claimSources = settings.getClaimSources();
+    SignedJWT accessToken = claimSources.containsValue(ClaimSource.ACCESS_TOKEN)
+        ? parseJwtAccessToken(oidcTokens.getAccessToken())
+        : null;
+    UserInfo userInfo = resolveClaims(idTokenClaims, accessToken, claimSources);
+    ClaimCoverage coverage = getClaimCoverage(providerMetadata);
+    boolean userInfoRequired = coverage.isUserInfoRequired(userInfo)
+        || claimSources.containsValue(ClaimSource.USER_INFO);
+    LOGGER.debug("{}", coverage);
+    String userInfoCacheKey = providerMetadata.getIssuer().getValue() + " " + userInfo.getSubject().getValue();
+    UserInfo cachedUserInfo = userInfoRequired && userInfoCache.isEnabled() ? userInfoCache.get(userInfoCacheKey)
+        : null;
+    if (cachedUserInfo != null) {
+      LOGGER.debug("Using cached user info");
+      userInfoRequired = false;
+    }
+
+    // The user info request doesn't depend on the ID token validation, so in concurrent mode both run in parallel
+    // (the user info is discarded if the ID token turns out to be invalid)
+    CompletableFuture<UserInfoResponse> pendingUserInfoResponse = null;
+    if (userInfoRequired && concurrent) {
+      pendingUserInfoResponse = CompletableFuture.supplyAsync(() -> getUserInfoResponse(
+          providerMetadata.getUserInfoEndpointURI(), oidcTokens.getBearerAccessToken(), deadline), callbackExecutor);
+    }
+    if (algorithm != null) {
+      try {
+        validateIdToken(providerMetadata.getIssuer(), providerMetadata.getJWKSetURI(), algorithm,
+            oidcTokens.getIDToken(), deadline);
+        if (accessToken != null) {
+          validateAccessToken(providerMetadata.getIssuer(), providerMetadata.getJWKSetURI(), algorithm, accessToken,
+              deadline);
+        }
+      } catch (RuntimeException e) {
+        if (pendingUserInfoResponse != null) {
+          pendingUserInfoResponse.cancel(true);
+        }
+        throw e;
+      }
+    }
+
+    if (userInfoRequired) {
+      UserInfoResponse userInfoResponse = pendingUserInfoResponse != null ? join(pendingUserInfoResponse, deadline)
+          : getUserInfoResponse(providerMetadata.getUserInfoEndpointURI(), oidcTokens.getBearerAccessToken(), deadline);
       if (userInfoResponse instanceof UserInfoErrorResponse) {
         ErrorObject errorObject = ((UserInfoErrorResponse) userInfoResponse).getErrorObject();
         if (errorObject == null || errorObject.getCode() == null) {
@@ -140,17 +367,280 @@ public class OidcClient {
           throw new IllegalStateException("UserInfo request failed: " + errorObject.toJSONObject());
         }
       }
-      userInfo = ((UserInfoSuccessResponse) userInfoResponse).getUserInfo();
+      UserInfo retrievedUserInfo = ((UserInfoSuccessResponse) userInfoResponse).getUserInfo();
+      if (userInfo.getSubject().equals(retrievedUserInfo.getSubject())) {
+        userInfoCache.put(userInfoCacheKey, retrievedUserInfo);
+      }
+      userInfo = mergeClaims(retrievedUserInfo, userInfo, claimSources);
+    } else if (cachedUserInfo != null) {
+      userInfo = mergeClaims(cachedUserInfo, userInfo, claimSources);
+    }
+    if (settings.isDistributedClaims()) {
+      userInfo = resolveDistributedClaims(userInfo, idTokenClaims, providerMetadata.getIssuer().getValue(),
+          oidcTokens.getBearerAccessToken(), deadline);
     }
 
     LOGGER.debug("User info: {}", userInfo.toJSONObject());
     return userInfo;
   }
 
-  private OIDCTokens getOidcTokens(AuthorizationCode authorizationCode, String callbackUrl, OIDCProviderMetadata providerMetadata) {
+  /**
+   * Returns the access token as JWT, or <code>null</code> if it's an opaque token (then the claims configured for the
+   * access token are requested from the UserInfo endpoint).
+   */
+  @CheckForNull
+  private static SignedJWT parseJwtAccessToken(AccessToken accessToken) {
+    try {
+      return SignedJWT.parse(accessToken.getValue());
+    } catch (java.text.ParseException e) {
+      LOGGER.debug("Access token isn't a signed JWT - reading claims from user info instead");
+      return null;
+    }
+  }
+
+  /**
+   * Resolves the claims of the user from the cheapest configured source, i.e. from the ID token or from the (not yet
+   * validated) JWT access token. Claims configured for the UserInfo endpoint are left out.
+   */
+  private static UserInfo resolveClaims(UserInfo idTokenClaims, @Nullable SignedJWT accessToken,
+      Map<String, ClaimSource> claimSources) {
+    if (claimSources.isEmpty()) {
+      return idTokenClaims;
+    }
+    JWTClaimsSet accessTokenClaims = null;
+    if (accessToken != null) {
+      try {
+        accessTokenClaims = accessToken.getJWTClaimsSet();
+      } catch (java.text.ParseException e) {
+        throw new IllegalStateException("Parsing access token failed", e);
+      }
+    }
+    UserInfo claims = new UserInfo(idTokenClaims.toJSONObject());
+    for (Map.Entry<String, ClaimSource> claimSource : claimSources.entrySet()) {
+      String name = claimSource.getKey();
+      if (claimSource.getValue() == ClaimSource.ACCESS_TOKEN) {
+        claims.setClaim(name, accessTokenClaims != null ? accessTokenClaims.getClaim(name) : null);
+      } else if (claimSource.getValue() == ClaimSource.USER_INFO) {
+        claims.setClaim(name, null);
+      }
+    }
+    return claims;
+  }
+
+  /**
+   * Adds the claims resolved from the tokens to the user info retrieved from the UserInfo endpoint. Claims read from
+   * the access token take precedence, claims read from the ID token are only added if the user info lacks them.
+   */
+  private UserInfo mergeClaims(UserInfo userInfo, UserInfo resolvedClaims, Map<String, ClaimSource> claimSources) {
+    if (claimSources.isEmpty()) {
+      return userInfo;
+    }
+    UserInfo claims = new UserInfo(userInfo.toJSONObject());
+    for (String name : config.snapshot().getUserInfoClaimNames()) {
+      ClaimSource source = claimSources.getOrDefault(name, ClaimSource.ID_TOKEN);
+      Object value = resolvedClaims.getClaim(name);
+      if (value != null && (source == ClaimSource.ACCESS_TOKEN
+          || (source == ClaimSource.ID_TOKEN && claims.getClaim(name) == null))) {
+        claims.setClaim(name, value);
+      }
+    }
+    return claims;
+  }
+
+  /**
+   * Resolves the required claims which are missing in the given user info but distributed by the (validated) ID
+   * token. Multiple claim sources are requested concurrently, and the resolved claims are cached per subject.
+   */
+  private UserInfo resolveDistributedClaims(UserInfo userInfo, UserInfo idTokenClaims, String issuer,
+      BearerAccessToken accessToken, Deadline deadline) {
+    List<String> missingClaims = new ArrayList<>();
+    for (Set<String> alternatives : config.snapshot().getRequiredClaims()) {
+      if (alternatives.stream().allMatch(name -> userInfo.getClaim(name) == null)) {
+        missingClaims.addAll(alternatives);
+      }
+    }
+    List<DistributedClaimSource> sources = missingClaims.isEmpty() ? Collections.emptyList()
+        : DistributedClaimSource.find(idTokenClaims, missingClaims, URI.create(issuer),
+            config.snapshot().getDistributedClaimsAllowedHosts());
+    if (sources.isEmpty()) {
+      return userInfo;
+    }
+    String cacheKey = issuer + " " + userInfo.getSubject().getValue();
+    UserInfo distributedClaims = distributedClaimsCache.get(cacheKey);
+    if (distributedClaims != null) {
+      LOGGER.debug("Using cached distributed claims");
+    } else {
+      distributedClaims = new UserInfo(userInfo.getSubject());
+      if (sources.size() == 1) {
+        distributedClaims.putAll(getDistributedClaims(sources.get(0), accessToken, deadline));
+      } else {
+        List<CompletableFuture<Map<String, Object>>> pendingClaims = new ArrayList<>();
+        for (DistributedClaimSource source : sources) {
+          pendingClaims.add(CompletableFuture.supplyAsync(() -> getDistributedClaims(source, accessToken, deadline),
+              callbackExecutor));
+        }
+        for (CompletableFuture<Map<String, Object>> claims : pendingClaims) {
+          distributedClaims.putAll(join(claims, deadline));
+        }
+      }
+      distributedClaimsCache.put(cacheKey, distributedClaims);
+    }
+    UserInfo claims = new UserInfo(userInfo.toJSONObject());
+    claims.putAll(distributedClaims);
+    return claims;
+  }
+
+  /**
+   * Requests the claims of the given distributed claim source. A paged Microsoft Graph collection is requested page
+   * by page, as each page links to the next one.
+   */
+  protected Map<String, Object> getDistributedClaims(DistributedClaimSource source, BearerAccessToken accessToken,
+      Deadline deadline) {
+    LOGGER.debug("Retrieving distributed claims {} from {}", source.getClaimNames(), source);
+    String authorization = (source.getAccessToken() != null ? new BearerAccessToken(source.getAccessToken())
+        : accessToken).toAuthorizationHeader();
+    Set<String> members = new HashSet<>(source.getClaimNames());
+    if (source.isPaged()) {
+      members.addAll(Arrays.asList(GRAPH_VALUE, GRAPH_NEXT_LINK));
+    }
+    Map<String, Object> claims = new HashMap<>();
+    List<Object> values = new ArrayList<>();
+    URI pageUri = source.getEndpoint();
+    try {
+      for (int page = 1; pageUri != null; page++) {
+        if (page > MAX_DISTRIBUTED_CLAIM_PAGES) {
+          throw new IllegalStateException("Retrieving distributed claims from source " + source
+              + " failed: More than " + MAX_DISTRIBUTED_CLAIM_PAGES + " pages");
+        }
+        HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, pageUri);
+        request.setAuthorization(authorization);
+        request.setAccept(ContentType.APPLICATION_JSON.toString());
+        JSONObject content = retryPolicy.execute(deadline, () -> sendLoginRequest(request,
+            config.snapshot().getUserInfoReadTimeout(), deadline, (response, body) -> {
+              if (response.getStatusCode() == HTTPResponse.SC_OK && isJson(response)) {
+                return JsonStreamReader.readObject(body, members);
+              }
+              throw new ParseException("Unexpected response status " + response.getStatusCode());
+            }));
+        if (!source.isPaged()) {
+          for (String name : source.getClaimNames()) {
+            claims.put(name, content.get(name));
+          }
+          return claims;
+        }
+        addGraphValues(content.get(GRAPH_VALUE), values);
+        pageUri = getNextLink(source, content);
+      }
+    } catch (ParseException e) {
+      throw new IllegalStateException("Retrieving distributed claims from source " + source + " failed: "
+          + e.getMessage(), e);
+    } catch (SocketTimeoutException e) {
+      throw new IllegalStateException("Retrieving distributed claims from source " + source
+          + " failed: Endpoint didn't respond in time", e);
+    } catch (ResponseTooLargeException e) {
+      throw new IllegalStateException("Retrieving distributed claims from source " + source + " failed: "
+          + e.getMessage(), e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Retrieving distributed claims from source " + source
+          + " failed: Endpoint not reachable - check network proxy setting 'http.nonProxyHosts' in 'sonar.properties'");
+    }
+    LOGGER.debug("Retrieved {} distributed claim values from {}", values.size(), source);
+    claims.put(source.getClaimNames().get(0), values);
+    return claims;
+  }
+
+  /**
+   * Adds the IDs of the groups of a Microsoft Graph collection page (directory roles etc. are skipped).
+   */
+  private static void addGraphValues(@Nullable Object value, List<Object> values) {
+    if (!(value instanceof List)) {
+      return;
+    }
+    for (Object item : (List<?>) value) {
+      if (item instanceof String) {
+        values.add(item);
+      } else if (item instanceof Map) {
+        Map<?, ?> object = (Map<?, ?>) item;
+        Object type = object.get(GRAPH_TYPE);
+        if ((type == null || "#microsoft.graph.group".equals(type)) && object.get("id") != null) {
+          values.add(object.get("id"));
+        }
+      }
+    }
+  }
+
+  @CheckForNull
+  private static URI getNextLink(DistributedClaimSource source, JSONObject content) throws ParseException {
+    Object nextLink = content.get(GRAPH_NEXT_LINK);
+    if (!(nextLink instanceof String)) {
+      return null;
+    }
+    URI uri;
+    try {
+      uri = new URI((String) nextLink);
+    } catch (URISyntaxException e) {
+      throw new ParseException("Invalid next link: " + nextLink, e);
+    }
+    if (!source.isSameOrigin(uri)) {
+      throw new ParseException("Next link points to another server: " + nextLink);
+    }
+    return uri;
+  }
+
+  /**
+   * Returns the claim coverage of the ID tokens issued by the current provider. The learned coverage is reset if the
+   * provider or the required claims changed.
+   */
+  ClaimCoverage getClaimCoverage(OIDCProviderMetadata providerMetadata) {
+    String issuer = providerMetadata.getIssuer().getValue();
+    ConfigurationSnapshot settings = config.snapshot();
+    List<Set<String>> requiredClaims = settings.getRequiredClaims();
+    List<ClaimPath> requiredPaths = settings.getRequiredClaimPaths();
+    List<String> supportedClaims = providerMetadata.getClaims();
+    ClaimCoverage coverage = claimCoverage;
+    if (coverage == null || !coverage.matches(issuer, requiredClaims, requiredPaths, supportedClaims)) {
+      coverage = new ClaimCoverage(issuer, requiredClaims, requiredPaths, supportedClaims);
+      claimCoverage = coverage;
+    }
+    return coverage;
+  }
+
+  /**
+   * Loads a not yet cached JWK set in the background, so it's available when the ID token returned by the token
+   * request is validated.
+   */
+  private void prefetchJwkSet(@Nullable URI jwkSetURI, @Nullable JWSAlgorithm algorithm, Deadline deadline) {
+    if (algorithm != null && !JWSAlgorithm.Family.HMAC_SHA.contains(algorithm) && jwkSetURI != null
+        && jwkSetCache.peek(jwkSetURI.toString()) == null) {
+      CompletableFuture.runAsync(() -> getJwkSet(jwkSetURI, deadline), callbackExecutor).exceptionally(e -> {
+        LOGGER.debug("Prefetching JWK set from {} failed: {}", jwkSetURI, e.getMessage());
+        return null;
+      });
+    }
+  }
+
+  private static <T> T join(CompletableFuture<T> future, Deadline deadline) {
+    try {
+      return future.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    } catch (TimeoutException e) {
+      future.cancel(true);
+      throw new IllegalStateException("Login timed out: Identity provider didn't respond in time");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Login interrupted", e);
+    }
+  }
+
+  private OIDCTokens getOidcTokens(AuthorizationCode authorizationCode, String callbackUrl,
+      OIDCProviderMetadata providerMetadata, Deadline deadline) {
     LOGGER.debug("Retrieving OIDC tokens with user info claims set from {}", providerMetadata.getTokenEndpointURI());
     TokenResponse tokenResponse = getTokenResponse(providerMetadata.getTokenEndpointURI(), authorizationCode,
-        callbackUrl);
+        callbackUrl, deadline);
     if (tokenResponse instanceof TokenErrorResponse) {
       ErrorObject errorObject = ((TokenErrorResponse) tokenResponse).getErrorObject();
       if (errorObject == null || errorObject.getCode() == null) {
@@ -160,36 +650,58 @@ public class OidcClient {
         throw new IllegalStateException("Token request failed: " + errorObject.toJSONObject());
       }
     }
-    OIDCTokens oidcTokens = ((OIDCTokenResponse) tokenResponse).getOIDCTokens();
-    if (isIdTokenSigned()) {
-      validateIdToken(providerMetadata.getIssuer(), providerMetadata.getJWKSetURI(), oidcTokens.getIDToken());
-    }
-    return oidcTokens;
+    return ((OIDCTokenResponse) tokenResponse).getOIDCTokens();
   }
 
   protected TokenResponse getTokenResponse(URI tokenEndpointURI, AuthorizationCode authorizationCode,
-      String callbackUrl) {
+      String callbackUrl, Deadline deadline) {
+    ConfigurationSnapshot settings = config.snapshot();
     try {
-      TokenRequest request = new TokenRequest(tokenEndpointURI, new ClientSecretBasic(getClientId(), getClientSecret()),
+      TokenRequest request = new TokenRequest(tokenEndpointURI,
+          new ClientSecretBasic(settings.getClientId(), settings.getClientSecret()),
           new AuthorizationCodeGrant(authorizationCode, new URI(callbackUrl)));
-      HTTPResponse response = request.toHTTPRequest().send();
-      LOGGER.debug("Token response content: {}", response.getContent());
-      return OIDCTokenResponseParser.parse(response);
+      // Never retried - the authorization code may already be redeemed even if the response got lost
+      long readTimeout = settings.getTokenReadTimeout();
+      return sendLoginRequest(request.toHTTPRequest(), readTimeout, deadline, (response, content) -> {
+        if (response.getStatusCode() == HTTPResponse.SC_OK && isJson(response)) {
+          JSONObject tokenResponse = JsonStreamReader.readObject(content, TOKEN_RESPONSE_MEMBERS);
+          LOGGER.debug("Token response content: {}", tokenResponse);
+          return OIDCTokenResponseParser.parse(tokenResponse);
+        }
+        HTTPResponse tokenResponse = HttpTransport.buffer(response, content);
+        LOGGER.debug("Token response content: {}", tokenResponse.getContent());
+        return OIDCTokenResponseParser.parse(tokenResponse);
+      });
     } catch (URISyntaxException | ParseException e) {
       throw new IllegalStateException("Retrieving access token failed", e);
+    } catch (SocketTimeoutException e) {
+      throw new IllegalStateException("Retrieving access token failed: Identity provider didn't respond in time", e);
+    } catch (ResponseTooLargeException e) {
+      throw new IllegalStateException("Retrieving access token failed: " + e.getMessage(), e);
     } catch (IOException e) {
       throw new IllegalStateException("Retrieving access token failed: "
           + "Identity provider not reachable - check network proxy setting 'http.nonProxyHosts' in 'sonar.properties'");
     }
   }
 
-  private void validateIdToken(Issuer issuer, URI jwkSetURI, JWT idToken) {
-    LOGGER.debug("Validating ID token with {} and key set from from {}", getIdTokenSignAlgorithm(), jwkSetURI);
+  private void validateAccessToken(Issuer issuer, URI jwkSetURI, JWSAlgorithm algorithm, JWT accessToken,
+      Deadline deadline) {
+    LOGGER.debug("Validating access token with {} and key set from from {}", algorithm, jwkSetURI);
     try {
-      IDTokenValidator validator = createValidator(issuer, jwkSetURI.toURL());
-      validator.validate(idToken, null);
-    } catch (MalformedURLException e) {
-      throw new IllegalStateException("Invalid JWK set URL", e);
+      createValidator(issuer, jwkSetURI).validateAccessToken(accessToken, deadline);
+    } catch (BadJOSEException e) {
+      throw new IllegalStateException("Invalid access token", e);
+    } catch (JOSEException e) {
+      throw new IllegalStateException("Validating access token failed", e);
+    }
+  }
+
+  private void validateIdToken(Issuer issuer, URI jwkSetURI, JWSAlgorithm algorithm, JWT idToken,
+      Deadline deadline) {
+    LOGGER.debug("Validating ID token with {} and key set from from {}", algorithm, jwkSetURI);
+    try {
+      IdTokenVerifier verifier = createValidator(issuer, jwkSetURI);
+      verifier.validate(idToken, deadline);
     } catch (BadJOSEException e) {
       throw new IllegalStateException("Invalid ID token", e);
     } catch (JOSEException e) {
@@ -197,59 +709,221 @@ public class OidcClient {
     }
   }
 
-  protected IDTokenValidator createValidator(Issuer issuer, URL jwkSetUrl) {
-    return new IDTokenValidator(issuer, getClientId(), getIdTokenSignAlgorithm(), jwkSetUrl);
+  /**
+   * Returns the verifier for the given issuer and the configured client and algorithm. The verifier is only created
+   * again if one of these (or the client secret respectively the JWK set URI it uses) changed.
+   */
+  protected IdTokenVerifier createValidator(Issuer issuer, URI jwkSetURI) {
+    ConfigurationSnapshot settings = config.snapshot();
+    JWSAlgorithm algorithm = settings.getIdTokenSignAlgorithm();
+    Object keys = JWSAlgorithm.Family.HMAC_SHA.contains(algorithm) ? settings.getClientSecret() : jwkSetURI;
+    CachedVerifier cached = cachedVerifier;
+    if (cached == null || !cached.matches(issuer, settings.getClientId(), algorithm, keys)) {
+      cached = new CachedVerifier(issuer, settings.getClientId(), algorithm, keys,
+          newValidator(issuer, jwkSetURI, settings));
+      cachedVerifier = cached;
+    }
+    return cached.verifier;
+  }
+
+  private IdTokenVerifier newValidator(Issuer issuer, URI jwkSetURI, ConfigurationSnapshot settings) {
+    JWSAlgorithm algorithm = settings.getIdTokenSignAlgorithm();
+    if (JWSAlgorithm.Family.HMAC_SHA.contains(algorithm)) {
+      // HMAC signed ID tokens are verified with the client secret (see OpenID Connect Core 1.0, section 10.1)
+      List<JWSVerifier> verifiers;
+      try {
+        verifiers = Collections.singletonList(new MACVerifier(settings.getClientSecret().getValueBytes()));
+      } catch (JOSEException e) {
+        throw new IllegalStateException("Client secret not suitable for validating HMAC signed ID token", e);
+      }
+      return new IdTokenVerifier(issuer, settings.getClientId(), algorithm, (keyId, deadline) -> verifiers);
+    }
+    JwkSetKeySource keySource = getJwkSetKeySource(jwkSetURI);
+    return new IdTokenVerifier(issuer, settings.getClientId(), algorithm,
+        (keyId, deadline) -> keySource.getVerifiers(algorithm, keyId, deadline));
+  }
+
+  private JwkSetKeySource getJwkSetKeySource(URI jwkSetURI) {
+    if (jwkSetURI == null) {
+      throw new IllegalStateException("Provider metadata doesn't contain a JWK set URI");
+    }
+    JwkSetKeySource keySource = jwkSetKeySource;
+    if (keySource == null || !keySource.getJwkSetUri().equals(jwkSetURI.toString())) {
+      keySource = new JwkSetKeySource(jwkSetURI.toString(), jwkSetCache, System2.INSTANCE);
+      jwkSetKeySource = keySource;
+    }
+    return keySource;
+  }
+
+  /**
+   * Returns the JWK set, which is retrieved within the given deadline if it isn't cached (the login timeout is used
+   * without deadline).
+   */
+  protected JWKSet getJwkSet(URI jwkSetURI, @Nullable Deadline deadline) {
+    if (jwkSetURI == null) {
+      throw new IllegalStateException("Provider metadata doesn't contain a JWK set URI");
+    }
+    return jwkSetCache.get(jwkSetURI.toString(), deadline);
   }
 
-  protected UserInfoResponse getUserInfoResponse(URI userInfoEndpointURI, BearerAccessToken accessToken) {
+  private HttpResource<JWKSet> retrieveJwkSet(String jwkSetUri, @Nullable HttpResource<JWKSet> cachedJwkSet,
+      @Nullable Deadline loginDeadline) {
+    LOGGER.debug("Retrieving JWK set from {}", jwkSetUri);
+    Deadline deadline = loginDeadline != null ? loginDeadline
+        : Deadline.after(config.snapshot().getLoginTimeout());
+    try {
+      URL url = new URL(jwkSetUri);
+      return retryPolicy.execute(deadline, () -> HttpResource.fetch(httpTransport,
+          request -> configureTimeouts(request, deadline), url, cachedJwkSet, response -> {
+            try {
+              return JWKSet.parse(response.getContent());
+            } catch (java.text.ParseException e) {
+              throw new ParseException(e.getMessage(), e);
+            }
+          }));
+    } catch (ParseException e) {
+      throw new IllegalStateException("Retrieving JWK set failed", e);
+    } catch (SocketTimeoutException e) {
+      throw new IllegalStateException("Retrieving JWK set failed: Identity provider didn't respond in time", e);
+    } catch (ResponseTooLargeException e) {
+      throw new IllegalStateException("Retrieving JWK set failed: " + e.getMessage(), e);
+    } catch (IOException e) {
+      throw new IllegalStateException("Retrieving JWK set failed: "
+          + "Identity provider not reachable - check network proxy setting 'http.nonProxyHosts' in 'sonar.properties'");
+    }
+  }
+
+  protected UserInfoResponse getUserInfoResponse(URI userInfoEndpointURI, BearerAccessToken accessToken,
+      Deadline deadline) {
     LOGGER.debug("Retrieving user info from {}", userInfoEndpointURI);
     try {
-      UserInfoRequest request = new UserInfoRequest(userInfoEndpointURI, accessToken);
-      HTTPResponse response = request.toHTTPRequest().send();
-      LOGGER.debug("UserInfo response content: {}", response.getContent());
-      return UserInfoResponse.parse(response);
+      HTTPRequest request = new UserInfoRequest(userInfoEndpointURI, accessToken).toHTTPRequest();
+      ConfigurationSnapshot settings = config.snapshot();
+      long readTimeout = settings.getUserInfoReadTimeout();
+      Set<String> userInfoClaimNames = settings.getUserInfoClaimNames();
+      return retryPolicy.execute(deadline, () -> sendLoginRequest(request, readTimeout, deadline,
+          (response, content) -> {
+            if (response.getStatusCode() == HTTPResponse.SC_OK && isJson(response)) {
+              JSONObject claims = JsonStreamReader.readObject(content, userInfoClaimNames);
+              LOGGER.debug("UserInfo response content: {}", claims);
+              try {
+                return new UserInfoSuccessResponse(new UserInfo(claims));
+              } catch (IllegalArgumentException e) {
+                throw new ParseException("Invalid UserInfo response: " + e.getMessage(), e);
+              }
+            }
+            HTTPResponse userInfoResponse = HttpTransport.buffer(response, content);
+            LOGGER.debug("UserInfo response content: {}", userInfoResponse.getContent());
+            return UserInfoResponse.parse(userInfoResponse);
+          }));
     } catch (ParseException e) {
       throw new IllegalStateException("Retrieving user information failed", e);
+    } catch (SocketTimeoutException e) {
+      throw new IllegalStateException(
+          "Retrieving user information failed: Identity provider didn't respond in time", e);
+    } catch (ResponseTooLargeException e) {
+      throw new IllegalStateException("Retrieving user information failed: " + e.getMessage(), e);
     } catch (IOException e) {
       throw new IllegalStateException("Retrieving user information failed: "
           + "Identity provider not reachable - check network proxy setting 'http.nonProxyHosts' in 'sonar.properties'");
     }
   }
 
-  protected OIDCProviderMetadata getProviderMetadata() {
-    LOGGER.debug("Retrieving provider metadata from {}", config.issuerUri());
+  /**
+   * Sends a request of the login callback. The number of concurrent login requests is limited, so web threads don't
+   * pile up waiting for a slow identity provider.
+   */
+  private <T> T sendLoginRequest(HTTPRequest request, long readTimeout, Deadline deadline,
+      ResponseHandler<T, ParseException> handler) throws IOException, ParseException {
+    request.setConnectTimeout(deadline.limit(toMillis(config.snapshot().getHttpConnectTimeout())));
+    request.setReadTimeout(deadline.limit(toMillis(readTimeout)));
+    if (loginRequests != null && !loginRequests.tryAcquire()) {
+      throw new IllegalStateException("Too many concurrent requests to the identity provider (limit is "
+          + maxLoginRequests + ") - try again later");
+    }
     try {
-      return OIDCProviderMetadata.resolve(new Issuer(config.issuerUri()));
-    } catch (IOException | GeneralException e) {
-      if (e instanceof GeneralException && e.getMessage().contains("issuer doesn't match")) {
-        throw new IllegalStateException("Retrieving OpenID Connect provider metadata failed: " +
-                "Issuer URL in provider metadata doesn't match the issuer URI specified in plugin configuration");
-      } else {
-        throw new IllegalStateException("Retrieving OpenID Connect provider metadata failed", e);
+      return httpTransport.send(request, handler);
+    } finally {
+      if (loginRequests != null) {
+        loginRequests.release();
       }
     }
   }
 
-  private Scope getScope() {
-    return Scope.parse(config.scopes());
+  private static boolean isJson(HTTPResponse response) {
+    return response.getEntityContentType() == null
+        || response.getEntityContentType().matches(ContentType.APPLICATION_JSON);
   }
 
-  private ClientID getClientId() {
-    return new ClientID(config.clientId());
+  private void configureTimeouts(HTTPRequest request, Deadline deadline) {
+    ConfigurationSnapshot settings = config.snapshot();
+    request.setConnectTimeout(deadline.limit(toMillis(settings.getHttpConnectTimeout())));
+    request.setReadTimeout(deadline.limit(toMillis(settings.getHttpReadTimeout())));
   }
 
-  private Secret getClientSecret() {
-    String secret = config.clientSecret();
-    return secret == null ? new Secret("") : new Secret(secret);
+  private static int toMillis(long seconds) {
+    return (int) Math.min(TimeUnit.SECONDS.toMillis(Math.max(0, seconds)), Integer.MAX_VALUE);
   }
 
-  private boolean isIdTokenSigned() {
-    return config.idTokenSignAlgorithm() != null;
+  /**
+   * Returns the provider metadata, which is retrieved within the given deadline if it isn't cached (the login timeout
+   * is used without deadline).
+   */
+  protected OIDCProviderMetadata getProviderMetadata(@Nullable Deadline deadline) {
+    return providerMetadataCache.get(config.snapshot().getIssuerUri(), deadline);
+  }
+
+  private HttpResource<OIDCProviderMetadata> resolveProviderMetadata(String issuerUri,
+      @Nullable HttpResource<OIDCProviderMetadata> cachedProviderMetadata, @Nullable Deadline loginDeadline) {
+    LOGGER.debug("Retrieving provider metadata from {}", issuerUri);
+    Deadline deadline = loginDeadline != null ? loginDeadline
+        : Deadline.after(config.snapshot().getLoginTimeout());
+    HttpResource<OIDCProviderMetadata> providerMetadata;
+    Issuer issuer = new Issuer(issuerUri);
+    try {
+      URL url = OIDCProviderMetadata.resolveURL(issuer);
+      providerMetadata = retryPolicy.execute(deadline, () -> HttpResource.fetch(httpTransport,
+          request -> configureTimeouts(request, deadline), url, cachedProviderMetadata,
+              response -> OIDCProviderMetadata.parse(response.getContent())));
+    } catch (IOException | GeneralException e) {
+      throw new IllegalStateException("Retrieving OpenID Connect provider metadata failed", e);
+    }
+    if (!issuer.equals(providerMetadata.getValue().getIssuer())) {
+      throw new IllegalStateException("Retrieving OpenID Connect provider metadata failed: " +
+          "Issuer URL in provider metadata doesn't match the issuer URI specified in plugin configuration");
+    }
+    return providerMetadata;
+  }
+
+  private static final class CachedVerifier {
+    private final Issuer issuer;
+    private final ClientID clientId;
+    private final JWSAlgorithm algorithm;
+    private final Object keys;
+    private final IdTokenVerifier verifier;
+
+    private CachedVerifier(Issuer issuer, @Nullable ClientID clientId, @Nullable JWSAlgorithm algorithm,
+        @Nullable Object keys, IdTokenVerifier verifier) {
+      this.issuer = issuer;
+      this.clientId = clientId;
+      this.algorithm = algorithm;
+      this.keys = keys;
+      this.verifier = verifier;
+    }
+
+    private boolean matches(Issuer otherIssuer, @Nullable ClientID otherClientId,
+        @Nullable JWSAlgorithm otherAlgorithm, @Nullable Object otherKeys) {
+      return issuer.equals(otherIssuer) && Objects.equals(clientId, otherClientId)
+          && Objects.equals(algorithm, otherAlgorithm) && Objects.equals(keys, otherKeys);
+    }
   }
 
-  private JWSAlgorithm getIdTokenSignAlgorithm() {
-    String algorithmName = config.idTokenSignAlgorithm();
-    return algorithmName == null ? null : new JWSAlgorithm(algorithmName);
+  static ThreadFactory daemonThreadFactory(String name) {
+    return runnable -> {
+      Thread thread = new Thread(runnable, name);
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
 }
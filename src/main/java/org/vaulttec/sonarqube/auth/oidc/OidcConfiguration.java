@@ -21,12 +21,18 @@ import static java.lang.String.format;
 import static java.lang.String.valueOf;
 import static org.sonar.api.CoreProperties.CATEGORY_SECURITY;
 import static org.sonar.api.PropertyType.BOOLEAN;
+import static org.sonar.api.PropertyType.INTEGER;
+import static org.sonar.api.PropertyType.PASSWORD;
 import static org.sonar.api.PropertyType.SINGLE_SELECT_LIST;
 import static org.sonar.api.PropertyType.STRING;
 
 import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 
 import javax.annotation.CheckForNull;
 
@@ -34,6 +40,7 @@ import org.sonar.api.CoreProperties;
 import org.sonar.api.config.Configuration;
 import org.sonar.api.config.PropertyDefinition;
 import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.System2;
 
 @ServerSide
 public class OidcConfiguration {
@@ -72,6 +79,14 @@ public class OidcConfiguration {
   static final String GROUPS_SYNC = PREFIX + ".groupsSync";
   static final String GROUPS_SYNC_CLAIM_NAME = PREFIX + ".groupsSync.claimName";
   private static final String GROUPS_SYNC_CLAIM_NAME_DEFAULT_VALUE = "groups";
+  static final String GROUPS_SYNC_INCLUDE = PREFIX + ".groupsSync.include";
+  static final String GROUPS_SYNC_EXCLUDE = PREFIX + ".groupsSync.exclude";
+  static final String GROUPS_SYNC_MAPPING = PREFIX + ".groupsSync.mapping";
+  static final String GROUPS_SYNC_MAPPING_FILE = PREFIX + ".groupsSync.mappingFile";
+  static final String GROUPS_SYNC_MAX_AGE = PREFIX + ".groupsSync.maxAge";
+  static final long GROUPS_SYNC_MAX_AGE_DEFAULT_VALUE = 0;
+  static final String GROUPS_SYNC_CACHE_SIZE = PREFIX + ".groupsSync.cacheSize";
+  static final int GROUPS_SYNC_CACHE_SIZE_DEFAULT_VALUE = 10000;
 
   static final String ICON_PATH = PREFIX + ".iconPath";
   private static final String ICON_PATH_DEFAULT_VALUE = "/static/authoidc/openid.svg";
@@ -82,10 +97,146 @@ public class OidcConfiguration {
   static final String LOGIN_BUTTON_TEXT = PREFIX + ".loginButtonText";
   private static final String LOGIN_BUTTON_TEXT_DEFAULT_VALUE = "OpenID Connect";
 
+  static final String PROVIDER_METADATA_CACHE_TTL = PREFIX + ".providerMetadata.cacheTtl";
+  static final long PROVIDER_METADATA_CACHE_TTL_DEFAULT_VALUE = 3600;
+
+  static final String JWK_SET_CACHE_TTL = PREFIX + ".jwkSet.cacheTtl";
+  static final long JWK_SET_CACHE_TTL_DEFAULT_VALUE = 3600;
+
+  static final String CACHE_GRACE_PERIOD = PREFIX + ".cache.gracePeriod";
+  static final long CACHE_GRACE_PERIOD_DEFAULT_VALUE = 3600;
+
+  static final String CONCURRENT_CALLBACK = PREFIX + ".callback.concurrent";
+
+  static final String HTTP_MAX_CONNECTIONS = PREFIX + ".http.maxConnections";
+  static final int HTTP_MAX_CONNECTIONS_DEFAULT_VALUE = 20;
+
+  static final String HTTP_MAX_CONNECTIONS_PER_HOST = PREFIX + ".http.maxConnectionsPerHost";
+  static final int HTTP_MAX_CONNECTIONS_PER_HOST_DEFAULT_VALUE = 10;
+
+  static final String HTTP_IDLE_TIMEOUT = PREFIX + ".http.idleTimeout";
+  static final long HTTP_IDLE_TIMEOUT_DEFAULT_VALUE = 60;
+
+  static final String HTTP_CONNECT_TIMEOUT = PREFIX + ".http.connectTimeout";
+  static final long HTTP_CONNECT_TIMEOUT_DEFAULT_VALUE = 5;
+
+  static final String HTTP_READ_TIMEOUT = PREFIX + ".http.readTimeout";
+  static final long HTTP_READ_TIMEOUT_DEFAULT_VALUE = 10;
+
+  static final String TOKEN_READ_TIMEOUT = PREFIX + ".token.readTimeout";
+  static final long TOKEN_READ_TIMEOUT_DEFAULT_VALUE = 10;
+
+  static final String USER_INFO_READ_TIMEOUT = PREFIX + ".userInfo.readTimeout";
+  static final long USER_INFO_READ_TIMEOUT_DEFAULT_VALUE = 10;
+
+  static final String LOGIN_TIMEOUT = PREFIX + ".login.timeout";
+  static final long LOGIN_TIMEOUT_DEFAULT_VALUE = 30;
+
+  static final String HTTP_MAX_CONCURRENT_REQUESTS = PREFIX + ".http.maxConcurrentRequests";
+  static final int HTTP_MAX_CONCURRENT_REQUESTS_DEFAULT_VALUE = 50;
+
+  static final String HTTP_MAX_RESPONSE_SIZE = PREFIX + ".http.maxResponseSize";
+  static final long HTTP_MAX_RESPONSE_SIZE_DEFAULT_VALUE = 1024;
+
+  static final String HTTP_COMPRESSION = PREFIX + ".http.compression";
+
+  static final String HTTP_MAX_ATTEMPTS = PREFIX + ".http.maxAttempts";
+  static final int HTTP_MAX_ATTEMPTS_DEFAULT_VALUE = 3;
+
+  static final String USER_INFO_CACHE_TTL = PREFIX + ".userInfo.cacheTtl";
+  static final long USER_INFO_CACHE_TTL_DEFAULT_VALUE = 0;
+
+  static final String USER_INFO_CACHE_SIZE = PREFIX + ".userInfo.cacheSize";
+  static final int USER_INFO_CACHE_SIZE_DEFAULT_VALUE = 1000;
+
+  static final String CLAIM_SOURCES = PREFIX + ".claimSources";
+
+  static final String DISTRIBUTED_CLAIMS = PREFIX + ".distributedClaims";
+
+  static final String DISTRIBUTED_CLAIMS_CACHE_TTL = PREFIX + ".distributedClaims.cacheTtl";
+  static final long DISTRIBUTED_CLAIMS_CACHE_TTL_DEFAULT_VALUE = 300;
+  static final String DISTRIBUTED_CLAIMS_CACHE_SIZE = PREFIX + ".distributedClaims.cacheSize";
+  static final int DISTRIBUTED_CLAIMS_CACHE_SIZE_DEFAULT_VALUE = 1000;
+  static final String DISTRIBUTED_CLAIMS_ALLOWED_HOSTS = PREFIX + ".distributedClaims.allowedHosts";
+
+  static final String LDAP_URL = PREFIX + ".ldap.url";
+  static final String LDAP_BIND_DN = PREFIX + ".ldap.bindDn";
+  static final String LDAP_BIND_PASSWORD = PREFIX + ".ldap.bindPassword.secured";
+  static final String LDAP_GROUP_SEARCH_BASE = PREFIX + ".ldap.groupSearchBase";
+  static final String LDAP_GROUP_SEARCH_FILTER = PREFIX + ".ldap.groupSearchFilter";
+  private static final String LDAP_GROUP_SEARCH_FILTER_DEFAULT_VALUE = "(memberUid={0})";
+  static final String LDAP_GROUP_NAME_ATTRIBUTE = PREFIX + ".ldap.groupNameAttribute";
+  private static final String LDAP_GROUP_NAME_ATTRIBUTE_DEFAULT_VALUE = "cn";
+  static final String LDAP_CACHE_TTL = PREFIX + ".ldap.cacheTtl";
+  static final long LDAP_CACHE_TTL_DEFAULT_VALUE = 300;
+
+  private static final String CONTEXT_PATH = "sonar.web.context";
+  private static final String[] SNAPSHOT_KEYS = { ENABLED, AUTO_LOGIN, ALLOW_USERS_TO_SIGN_UP,
+      CoreProperties.SERVER_BASE_URL, CONTEXT_PATH, ISSUER_URI, CLIENT_ID, CLIENT_SECRET, SCOPES, ID_TOKEN_SIG_ALG,
+      LOGIN_BUTTON_TEXT, ICON_PATH, BACKGROUND_COLOR, LOGIN_TIMEOUT, CONCURRENT_CALLBACK, HTTP_CONNECT_TIMEOUT,
+      HTTP_READ_TIMEOUT, TOKEN_READ_TIMEOUT, USER_INFO_READ_TIMEOUT, CLAIM_SOURCES, DISTRIBUTED_CLAIMS, LOGIN_STRATEGY,
+      LOGIN_STRATEGY_CUSTOM_CLAIM_NAME, GROUPS_SYNC, GROUPS_SYNC_CLAIM_NAME, GROUPS_SYNC_INCLUDE, GROUPS_SYNC_EXCLUDE,
+      PROVIDER_METADATA_CACHE_TTL, JWK_SET_CACHE_TTL, CACHE_GRACE_PERIOD, USER_INFO_CACHE_TTL,
+      DISTRIBUTED_CLAIMS_CACHE_TTL, DISTRIBUTED_CLAIMS_ALLOWED_HOSTS, GROUPS_SYNC_MAX_AGE, GROUPS_SYNC_MAPPING,
+      GROUPS_SYNC_MAPPING_FILE, LDAP_URL, LDAP_BIND_DN, LDAP_BIND_PASSWORD, LDAP_GROUP_SEARCH_BASE,
+      LDAP_GROUP_SEARCH_FILTER, LDAP_GROUP_NAME_ATTRIBUTE, LDAP_CACHE_TTL };
+  private static final Set<String> SNAPSHOT_KEY_SET = new HashSet<>(Arrays.asList(SNAPSHOT_KEYS));
+
+  /**
+   * Interval in milliseconds in which the snapshot is checked against the settings. Changes made via the web UI are
+   * applied immediately (see {@link SettingsChangeHandler}), but e.g. not on other nodes of a cluster.
+   */
+  static final long SNAPSHOT_CHECK_INTERVAL = 10_000;
+
   private final Configuration config;
+  private final System2 system2;
+  private volatile ConfigurationSnapshot snapshot;
+  private volatile long snapshotCheckedAt;
 
   public OidcConfiguration(Configuration config) {
+    this(config, System2.INSTANCE);
+  }
+
+  OidcConfiguration(Configuration config, System2 system2) {
     this.config = config;
+    this.system2 = system2;
+  }
+
+  /**
+   * Returns an immutable snapshot of the settings used for every login. The snapshot is replaced if one of these
+   * settings changed, which is checked after {@link #invalidate()} or at most every {@link #SNAPSHOT_CHECK_INTERVAL}
+   * milliseconds.
+   */
+  public ConfigurationSnapshot snapshot() {
+    ConfigurationSnapshot current = snapshot;
+    long now = system2.now();
+    if (current != null && now - snapshotCheckedAt < SNAPSHOT_CHECK_INTERVAL) {
+      return current;
+    }
+    String[] values = new String[SNAPSHOT_KEYS.length];
+    for (int i = 0; i < values.length; i++) {
+      values[i] = config.get(SNAPSHOT_KEYS[i]).orElse(null);
+    }
+    if (current == null || !current.matches(values)) {
+      current = new ConfigurationSnapshot(this, values);
+      snapshot = current;
+    }
+    snapshotCheckedAt = now;
+    return current;
+  }
+
+  /**
+   * Discards the current snapshot, so the next {@link #snapshot()} reflects the current settings.
+   */
+  public void invalidate() {
+    snapshot = null;
+  }
+
+  /**
+   * Returns <code>true</code> if the given setting is part of the {@link #snapshot()}.
+   */
+  static boolean isSnapshotKey(String key) {
+    return SNAPSHOT_KEY_SET.contains(key);
   }
 
   public String getBaseUrl() {
@@ -94,10 +245,15 @@ public class OidcConfiguration {
   }
 
   public String getContextPath() {
-    Optional<String> contextPath = config.get("sonar.web.context");
+    Optional<String> contextPath = config.get(CONTEXT_PATH);
     return contextPath.orElse("");
   }
 
+  public String getDataPath() {
+    Optional<String> dataPath = config.get("sonar.path.data");
+    return dataPath.orElse("data");
+  }
+
   public boolean isEnabled() {
     return config.getBoolean(ENABLED).orElse(false) && issuerUri() != null && clientId() != null;
   }
@@ -148,6 +304,31 @@ public class OidcConfiguration {
     return config.get(GROUPS_SYNC_CLAIM_NAME).orElse(null);
   }
 
+  public String[] syncGroupsInclude() {
+    return config.getStringArray(GROUPS_SYNC_INCLUDE);
+  }
+
+  public String[] syncGroupsExclude() {
+    return config.getStringArray(GROUPS_SYNC_EXCLUDE);
+  }
+
+  public String[] syncGroupsMapping() {
+    return config.getStringArray(GROUPS_SYNC_MAPPING);
+  }
+
+  @CheckForNull
+  public String syncGroupsMappingFile() {
+    return config.get(GROUPS_SYNC_MAPPING_FILE).orElse(null);
+  }
+
+  public long syncGroupsMaxAge() {
+    return config.getLong(GROUPS_SYNC_MAX_AGE).orElse(GROUPS_SYNC_MAX_AGE_DEFAULT_VALUE);
+  }
+
+  public int syncGroupsCacheSize() {
+    return config.getInt(GROUPS_SYNC_CACHE_SIZE).orElse(GROUPS_SYNC_CACHE_SIZE_DEFAULT_VALUE);
+  }
+
   public String iconPath() {
     return config.get(ICON_PATH).orElse(null);
   }
@@ -160,6 +341,151 @@ public class OidcConfiguration {
     return config.get(LOGIN_BUTTON_TEXT).orElse(null);
   }
 
+  public long providerMetadataCacheTtl() {
+    return config.getLong(PROVIDER_METADATA_CACHE_TTL).orElse(PROVIDER_METADATA_CACHE_TTL_DEFAULT_VALUE);
+  }
+
+  public long jwkSetCacheTtl() {
+    return config.getLong(JWK_SET_CACHE_TTL).orElse(JWK_SET_CACHE_TTL_DEFAULT_VALUE);
+  }
+
+  public long cacheGracePeriod() {
+    return config.getLong(CACHE_GRACE_PERIOD).orElse(CACHE_GRACE_PERIOD_DEFAULT_VALUE);
+  }
+
+  public boolean concurrentCallback() {
+    return config.getBoolean(CONCURRENT_CALLBACK).orElse(false);
+  }
+
+  public int httpMaxConnections() {
+    return config.getInt(HTTP_MAX_CONNECTIONS).orElse(HTTP_MAX_CONNECTIONS_DEFAULT_VALUE);
+  }
+
+  public int httpMaxConnectionsPerHost() {
+    return config.getInt(HTTP_MAX_CONNECTIONS_PER_HOST).orElse(HTTP_MAX_CONNECTIONS_PER_HOST_DEFAULT_VALUE);
+  }
+
+  public long httpIdleTimeout() {
+    return config.getLong(HTTP_IDLE_TIMEOUT).orElse(HTTP_IDLE_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public long httpConnectTimeout() {
+    return config.getLong(HTTP_CONNECT_TIMEOUT).orElse(HTTP_CONNECT_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public long httpReadTimeout() {
+    return config.getLong(HTTP_READ_TIMEOUT).orElse(HTTP_READ_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public long tokenReadTimeout() {
+    return config.getLong(TOKEN_READ_TIMEOUT).orElse(TOKEN_READ_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public long userInfoReadTimeout() {
+    return config.getLong(USER_INFO_READ_TIMEOUT).orElse(USER_INFO_READ_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public long loginTimeout() {
+    return config.getLong(LOGIN_TIMEOUT).orElse(LOGIN_TIMEOUT_DEFAULT_VALUE);
+  }
+
+  public int httpMaxConcurrentRequests() {
+    return config.getInt(HTTP_MAX_CONCURRENT_REQUESTS).orElse(HTTP_MAX_CONCURRENT_REQUESTS_DEFAULT_VALUE);
+  }
+
+  public long httpMaxResponseSize() {
+    return config.getLong(HTTP_MAX_RESPONSE_SIZE).orElse(HTTP_MAX_RESPONSE_SIZE_DEFAULT_VALUE);
+  }
+
+  public boolean httpCompression() {
+    return config.getBoolean(HTTP_COMPRESSION).orElse(true);
+  }
+
+  public int httpMaxAttempts() {
+    return config.getInt(HTTP_MAX_ATTEMPTS).orElse(HTTP_MAX_ATTEMPTS_DEFAULT_VALUE);
+  }
+
+  public long userInfoCacheTtl() {
+    return config.getLong(USER_INFO_CACHE_TTL).orElse(USER_INFO_CACHE_TTL_DEFAULT_VALUE);
+  }
+
+  public int userInfoCacheSize() {
+    return config.getInt(USER_INFO_CACHE_SIZE).orElse(USER_INFO_CACHE_SIZE_DEFAULT_VALUE);
+  }
+
+  public boolean distributedClaims() {
+    return config.getBoolean(DISTRIBUTED_CLAIMS).orElse(false);
+  }
+
+  public long distributedClaimsCacheTtl() {
+    return config.getLong(DISTRIBUTED_CLAIMS_CACHE_TTL).orElse(DISTRIBUTED_CLAIMS_CACHE_TTL_DEFAULT_VALUE);
+  }
+
+  public int distributedClaimsCacheSize() {
+    return config.getInt(DISTRIBUTED_CLAIMS_CACHE_SIZE).orElse(DISTRIBUTED_CLAIMS_CACHE_SIZE_DEFAULT_VALUE);
+  }
+
+  public String[] distributedClaimsAllowedHosts() {
+    return config.getStringArray(DISTRIBUTED_CLAIMS_ALLOWED_HOSTS);
+  }
+
+  @CheckForNull
+  public String ldapUrl() {
+    return config.get(LDAP_URL).orElse(null);
+  }
+
+  @CheckForNull
+  public String ldapBindDn() {
+    return config.get(LDAP_BIND_DN).orElse(null);
+  }
+
+  @CheckForNull
+  public String ldapBindPassword() {
+    return config.get(LDAP_BIND_PASSWORD).orElse(null);
+  }
+
+  public String ldapGroupSearchBase() {
+    return config.get(LDAP_GROUP_SEARCH_BASE).orElse("");
+  }
+
+  public String ldapGroupSearchFilter() {
+    return config.get(LDAP_GROUP_SEARCH_FILTER).orElse(LDAP_GROUP_SEARCH_FILTER_DEFAULT_VALUE);
+  }
+
+  public String ldapGroupNameAttribute() {
+    return config.get(LDAP_GROUP_NAME_ATTRIBUTE).orElse(LDAP_GROUP_NAME_ATTRIBUTE_DEFAULT_VALUE);
+  }
+
+  public long ldapCacheTtl() {
+    return config.getLong(LDAP_CACHE_TTL).orElse(LDAP_CACHE_TTL_DEFAULT_VALUE);
+  }
+
+  /**
+   * Returns the configured claim sources (entries like <code>groups:access_token</code>) by claim name. Claims which
+   * aren't listed are read from the ID token. Claims read from the access token require an ID token signature
+   * algorithm, as the access token is validated like the ID token.
+   */
+  public Map<String, ClaimSource> claimSources() {
+    Map<String, ClaimSource> sources = new LinkedHashMap<>();
+    for (String entry : config.getStringArray(CLAIM_SOURCES)) {
+      int separator = entry.lastIndexOf(':');
+      if (separator <= 0) {
+        throw new IllegalStateException("Invalid claim source '" + entry + "' - expected '<claim>:<source>'");
+      }
+      String claim = entry.substring(0, separator).trim();
+      if ("sub".equals(claim)) {
+        throw new IllegalStateException("Source of claim 'sub' can't be changed");
+      }
+      ClaimSource source = ClaimSource.fromValue(entry.substring(separator + 1).trim());
+      if (source == ClaimSource.ACCESS_TOKEN && idTokenSignAlgorithm() == null) {
+        throw new IllegalStateException("Source 'access_token' of claim '" + claim
+            + "' requires an ID token signature algorithm");
+      }
+      sources.put(claim, source);
+    }
+    return sources;
+  }
+
   public static List<PropertyDefinition> definitions() {
     int index = 1;
     return Arrays.asList(
@@ -211,7 +537,8 @@ public class OidcConfiguration {
                 LOGIN_STRATEGY_PREFERRED_USERNAME, LOGIN_STRATEGY_CUSTOM_CLAIM)
             .index(index++).build(),
         PropertyDefinition.builder(LOGIN_STRATEGY_CUSTOM_CLAIM_NAME).name("Login strategy custom claim")
-            .description("Name of the claim in case login generation strategy is set to custom claim.")
+            .description("Name of the claim in case login generation strategy is set to custom claim. Nested claims "
+                + "are selected by a dotted path (e.g. 'realm_access.username') or a JSON pointer.")
             .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING)
             .defaultValue(LOGIN_STRATEGY_CUSTOM_CLAIM_NAME_DEFAULT_VALUE).index(index++).build(),
         PropertyDefinition.builder(GROUPS_SYNC).name("Synchronize groups")
@@ -220,7 +547,9 @@ public class OidcConfiguration {
             .category(CATEGORY).subCategory(SUBCATEGORY).type(BOOLEAN).defaultValue(valueOf(false)).index(index++)
             .build(),
         PropertyDefinition.builder(GROUPS_SYNC_CLAIM_NAME).name("Groups claim name")
-            .description("Name of the claim in the Open ID Connect userinfo holding the user's groups.")
+            .description("Name of the claim in the Open ID Connect userinfo holding the user's groups. Nested claims "
+                + "are selected by a dotted path (e.g. 'realm_access.roles') or a JSON pointer (e.g. "
+                + "'/resource_access/my.client/roles').")
             .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING).defaultValue(GROUPS_SYNC_CLAIM_NAME_DEFAULT_VALUE)
             .index(index++).build(),
         PropertyDefinition.builder(ICON_PATH).name("Icon path")
@@ -234,7 +563,199 @@ public class OidcConfiguration {
             .index(index++).build(),
         PropertyDefinition.builder(LOGIN_BUTTON_TEXT).name("Login button text")
             .description("The text in SonarQube's login button added to 'Log in with '.").category(CATEGORY)
-            .subCategory(SUBCATEGORY).type(STRING).defaultValue(LOGIN_BUTTON_TEXT_DEFAULT_VALUE).index(index).build());
+            .subCategory(SUBCATEGORY).type(STRING).defaultValue(LOGIN_BUTTON_TEXT_DEFAULT_VALUE).index(index++).build(),
+        PropertyDefinition.builder(PROVIDER_METADATA_CACHE_TTL).name("Provider metadata cache TTL")
+            .description("Time in seconds the provider metadata retrieved via OpenID Connect Discovery is cached. "
+                + "The cached metadata is refreshed in the background before it expires. "
+                + "If the provider's response contains a 'Cache-Control: max-age' header then this value is used instead. "
+                + "A value of 0 disables the cache.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(PROVIDER_METADATA_CACHE_TTL_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(JWK_SET_CACHE_TTL).name("JWK set cache TTL")
+            .description("Time in seconds the provider's JSON Web Key set used for validating ID tokens is cached. "
+                + "The cached key set is refreshed in the background before it expires. "
+                + "If the provider's response contains a 'Cache-Control: max-age' header then this value is used instead. "
+                + "A value of 0 disables the cache.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(JWK_SET_CACHE_TTL_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(CACHE_GRACE_PERIOD).name("Cache grace period")
+            .description("Time in seconds an expired provider metadata or JWK set is still used "
+                + "if the identity provider isn't reachable. Meanwhile the refresh is retried with an increasing delay.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(CACHE_GRACE_PERIOD_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(CONCURRENT_CALLBACK).name("Concurrent identity provider requests")
+            .description("Run independent requests to the identity provider during login concurrently, e.g. "
+                + "retrieving the JWK set while the token request is in flight or the user info request while the "
+                + "ID token is validated.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(BOOLEAN).defaultValue(valueOf(false)).index(index++)
+            .build(),
+        PropertyDefinition.builder(HTTP_MAX_CONNECTIONS).name("Maximum HTTP connections")
+            .description("Maximum number of pooled keep-alive connections to the identity provider. "
+                + "Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_MAX_CONNECTIONS_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_MAX_CONNECTIONS_PER_HOST).name("Maximum HTTP connections per host")
+            .description("Maximum number of pooled keep-alive connections to a single host of the identity provider. "
+                + "Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_MAX_CONNECTIONS_PER_HOST_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_IDLE_TIMEOUT).name("HTTP connection idle timeout")
+            .description("Time in seconds an unused connection to the identity provider is kept in the pool. "
+                + "Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_IDLE_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_CONNECT_TIMEOUT).name("HTTP connect timeout")
+            .description("Time in seconds to wait for a connection to the identity provider. A value of 0 disables "
+                + "the timeout.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_CONNECT_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_READ_TIMEOUT).name("Discovery and JWK set read timeout")
+            .description("Time in seconds to wait for the identity provider's response when retrieving the provider "
+                + "metadata or the JWK set. A value of 0 disables the timeout.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_READ_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(TOKEN_READ_TIMEOUT).name("Token request read timeout")
+            .description("Time in seconds to wait for the identity provider's response to the token request. "
+                + "A value of 0 disables the timeout.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(TOKEN_READ_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(USER_INFO_READ_TIMEOUT).name("UserInfo request read timeout")
+            .description("Time in seconds to wait for the identity provider's response to the UserInfo request. "
+                + "A value of 0 disables the timeout.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(USER_INFO_READ_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(LOGIN_TIMEOUT).name("Login timeout")
+            .description("Time in seconds all requests to the identity provider during a single login must be "
+                + "finished in. The timeouts of the individual requests are reduced accordingly. "
+                + "A value of 0 disables the timeout.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(LOGIN_TIMEOUT_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_MAX_CONCURRENT_REQUESTS).name("Maximum concurrent login requests")
+            .description("Maximum number of concurrent token and UserInfo requests to the identity provider. "
+                + "Logins exceeding this limit fail immediately instead of blocking web server threads. "
+                + "A value of 0 disables the limit. Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_MAX_CONCURRENT_REQUESTS_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_MAX_RESPONSE_SIZE).name("Maximum response size")
+            .description("Maximum size in KB of a response from the identity provider. Larger responses are rejected. "
+                + "A value of 0 disables the limit. Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_MAX_RESPONSE_SIZE_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(HTTP_COMPRESSION).name("HTTP compression")
+            .description("Request gzip or deflate compressed responses from the identity provider. "
+                + "Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(BOOLEAN).defaultValue(valueOf(true)).index(index++)
+            .build(),
+        PropertyDefinition.builder(HTTP_MAX_ATTEMPTS).name("Maximum attempts")
+            .description("Maximum number of attempts of an idempotent request (provider metadata, JWK set and user "
+                + "info) to the identity provider which failed with a transient network error. The token request is "
+                + "never retried. A value of 1 disables retries. Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(HTTP_MAX_ATTEMPTS_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(USER_INFO_CACHE_TTL).name("User info cache TTL")
+            .description("Time in seconds the claims retrieved from the UserInfo endpoint are cached per user. "
+                + "Within this time a login with a valid ID token doesn't request the UserInfo endpoint again, so "
+                + "changes of e.g. the user's groups take effect after the cached claims expired. "
+                + "A value of 0 disables the cache.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(USER_INFO_CACHE_TTL_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(USER_INFO_CACHE_SIZE).name("User info cache size")
+            .description("Maximum number of users whose UserInfo claims are cached. If the cache is full then the "
+                + "least recently used entry is evicted. Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(USER_INFO_CACHE_SIZE_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(CLAIM_SOURCES).name("Claim sources")
+            .description("Sources of the claims used for the SonarQube user, as entries like 'roles:access_token'. "
+                + "Supported sources are 'id_token', 'access_token' (requires a JWT access token signed like the ID "
+                + "token and an ID token signature algorithm) and 'userinfo'. Claims missing in the ID token or access "
+                + "token are requested from the UserInfo endpoint. Claims which aren't listed are read from the ID "
+                + "token.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).multiValues(true).index(index++).build(),
+        PropertyDefinition.builder(DISTRIBUTED_CLAIMS).name("Resolve distributed claims")
+            .description("Request required claims which the provider distributes to other endpoints (referenced by "
+                + "'_claim_names' and '_claim_sources'), e.g. the groups of Azure AD users which are members of too "
+                + "many groups. The access token of the login is sent to these endpoints, so only HTTPS endpoints on "
+                + "the issuer's host or on an allowed host are requested. For Azure AD the groups are requested "
+                + "from Microsoft Graph, which requires the scope 'GroupMember.Read.All'.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(BOOLEAN).defaultValue(valueOf(false))
+            .index(index++).build(),
+        PropertyDefinition.builder(DISTRIBUTED_CLAIMS_CACHE_TTL).name("Distributed claims cache TTL")
+            .description("Time in seconds the resolved distributed claims are cached per user. A value of 0 disables "
+                + "the cache.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(DISTRIBUTED_CLAIMS_CACHE_TTL_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(DISTRIBUTED_CLAIMS_CACHE_SIZE).name("Distributed claims cache size")
+            .description("Maximum number of users whose resolved distributed claims are cached. If the cache is full "
+                + "then the least recently used entry is evicted. Changes require a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(DISTRIBUTED_CLAIMS_CACHE_SIZE_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(DISTRIBUTED_CLAIMS_ALLOWED_HOSTS).name("Distributed claims allowed hosts")
+            .description("Hosts besides the issuer's host which are trusted as distributed claim sources, e.g. "
+                + "'claims.example.com'. Sources on other hosts or without HTTPS are ignored.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).multiValues(true).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_INCLUDE).name("Included groups")
+            .description("Patterns of the groups claim entries to synchronize, e.g. 'sonar-*', 'prefix:CN=sonar' or "
+                + "'regex:^dev-[a-z]+$'. Patterns without type are globs supporting '*' and '?'. If empty then all "
+                + "groups are included.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).multiValues(true).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_EXCLUDE).name("Excluded groups")
+            .description("Patterns of the groups claim entries not to synchronize (same syntax as for the included "
+                + "groups).")
+            .category(CATEGORY).subCategory(SUBCATEGORY).multiValues(true).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_MAPPING).name("Group mapping")
+            .description("Mappings of the synchronized groups to SonarQube groups, specified as "
+                + "<code>&lt;IdP group&gt;=&lt;SonarQube group&gt;</code> or as rewrite rule "
+                + "<code>regex:&lt;pattern&gt;=&lt;replacement&gt;</code>. Groups without a mapping are kept "
+                + "unchanged. Entries containing commas (e.g. DNs) must be specified in the mapping file. Changes take effect "
+                + "without a restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).multiValues(true).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_MAPPING_FILE).name("Group mapping file")
+            .description("Path of a UTF-8 encoded file with additional group mappings (one per line, same syntax as "
+                + "for the group mapping, lines starting with <code>#</code> are ignored). Modifications of the file "
+                + "are picked up within 10 seconds.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_MAX_AGE).name("Group synchronization max age")
+            .description("Time in seconds the group synchronization is skipped for a user whose groups didn't change "
+                + "since the last synchronization. After this time the groups are synchronized again, which reverts "
+                + "changes of the user's groups made within SonarQube. A value of 0 synchronizes the groups with "
+                + "every login.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(GROUPS_SYNC_MAX_AGE_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(GROUPS_SYNC_CACHE_SIZE).name("Group synchronization cache size")
+            .description("Maximum number of users whose synchronized groups are remembered for skipping unchanged "
+                + "groups. If the cache is full then the least recently used entry is evicted. Changes require a "
+                + "restart.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(GROUPS_SYNC_CACHE_SIZE_DEFAULT_VALUE)).index(index++).build(),
+        PropertyDefinition.builder(LDAP_URL).name("LDAP URL")
+            .description("URL of an LDAP directory (e.g. 'ldap://ldap.acme.com:389') which is searched for additional "
+                + "groups of the user if groups are synchronized. Multiple space-separated URLs are tried in order. "
+                + "Leave blank to disable the LDAP group enrichment.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING).index(index++).build(),
+        PropertyDefinition.builder(LDAP_BIND_DN).name("LDAP bind DN")
+            .description("DN of the user for searching the LDAP directory. Leave blank for an anonymous bind.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING).index(index++).build(),
+        PropertyDefinition.builder(LDAP_BIND_PASSWORD).name("LDAP bind password")
+            .description("Password of the user for searching the LDAP directory.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(PASSWORD).index(index++).build(),
+        PropertyDefinition.builder(LDAP_GROUP_SEARCH_BASE).name("LDAP group search base")
+            .description("DN of the subtree searched for the user's groups, e.g. 'ou=groups,dc=acme,dc=com'.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING).index(index++).build(),
+        PropertyDefinition.builder(LDAP_GROUP_SEARCH_FILTER).name("LDAP group search filter")
+            .description("Filter for the user's groups. The placeholders {0}, {1} and {2} are replaced by the user's "
+                + "login, subject and email, e.g. '(&(objectClass=groupOfNames)(member=uid={0},ou=users,dc=acme,"
+                + "dc=com))'.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING)
+            .defaultValue(LDAP_GROUP_SEARCH_FILTER_DEFAULT_VALUE).index(index++).build(),
+        PropertyDefinition.builder(LDAP_GROUP_NAME_ATTRIBUTE).name("LDAP group name attribute")
+            .description("Attribute of the group entries holding the group name. Use 'dn' for the group's DN.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(STRING)
+            .defaultValue(LDAP_GROUP_NAME_ATTRIBUTE_DEFAULT_VALUE).index(index++).build(),
+        PropertyDefinition.builder(LDAP_CACHE_TTL).name("LDAP cache TTL")
+            .description("Time in seconds the groups found in the LDAP directory are cached per user. A value of 0 "
+                + "disables the cache.")
+            .category(CATEGORY).subCategory(SUBCATEGORY).type(INTEGER)
+            .defaultValue(valueOf(LDAP_CACHE_TTL_DEFAULT_VALUE)).index(index).build());
   }
 
 }
@@ -51,22 +51,26 @@ public class OidcIdentityProvider implements OAuth2IdentityProvider {
 
   @Override
   public String getName() {
-    return config.loginButtonText();
+    return config.snapshot().getLoginButtonText();
   }
 
   @Override
   public Display getDisplay() {
-    return Display.builder().setIconPath(config.iconPath()).setBackgroundColor(config.backgroundColor()).build();
+    Display display = config.snapshot().getDisplay();
+    if (display == null) {
+      throw new IllegalStateException("Icon path is missing");
+    }
+    return display;
   }
 
   @Override
   public boolean isEnabled() {
-    return config.isEnabled();
+    return config.snapshot().isEnabled();
   }
 
   @Override
   public boolean allowsUsersToSignUp() {
-    return config.allowUsersToSignUp();
+    return config.snapshot().allowUsersToSignUp();
   }
 
   @Override
@@ -86,10 +90,13 @@ public class OidcIdentityProvider implements OAuth2IdentityProvider {
     LOGGER.debug("Handling authentication response");
     context.verifyCsrfState();
     AuthorizationCode authorizationCode = client.getAuthorizationCode(context.getRequest());
-    UserInfo userInfo = client.getUserInfo(authorizationCode, context.getCallbackUrl());
-    UserIdentity userIdentity = userIdentityFactory.create(userInfo);
+    // The requests to the identity provider and to the LDAP directory share the time of the login
+    Deadline deadline = Deadline.after(config.snapshot().getLoginTimeout());
+    UserInfo userInfo = client.getUserInfo(authorizationCode, context.getCallbackUrl(), deadline);
+    UserIdentity userIdentity = userIdentityFactory.create(userInfo, deadline);
     LOGGER.debug("Authenticating user '{}' with groups {}", userIdentity.getProviderLogin(), userIdentity.getGroups());
     context.authenticate(userIdentity);
+    userIdentityFactory.groupsSynchronized(userIdentity);
     LOGGER.debug("Redirecting to requested page");
     context.redirectToRequestedPage();
   }
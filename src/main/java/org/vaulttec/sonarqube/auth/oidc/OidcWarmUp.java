@@ -0,0 +1,101 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.Date;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.sonar.api.Startable;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Retrieves the provider metadata and JWK set in the background when the server starts, so the first logins after a
+ * restart don't have to wait for them. SonarQube's startup isn't blocked by this.
+ * <p>
+ * If a snapshot persisted during the last run is available then it's used right away (and revalidated in the
+ * background). After warm-up and when the server stops the current provider metadata and JWK set are persisted.
+ */
+@ServerSide
+public class OidcWarmUp implements Startable {
+
+  private static final Logger LOGGER = Loggers.get(OidcWarmUp.class);
+
+  private final OidcConfiguration config;
+  private final OidcClient client;
+  private final ProviderSnapshotStore snapshotStore;
+  private final ExecutorService executor;
+
+  public OidcWarmUp(OidcConfiguration config, OidcClient client, ProviderSnapshotStore snapshotStore) {
+    this.config = config;
+    this.client = client;
+    this.snapshotStore = snapshotStore;
+    this.executor = Executors.newSingleThreadExecutor(OidcClient.daemonThreadFactory("oidc-warm-up"));
+  }
+
+  @Override
+  public void start() {
+    if (config.isEnabled()) {
+      executor.execute(this::warmUp);
+    }
+  }
+
+  @Override
+  public void stop() {
+    executor.shutdownNow();
+    if (config.isEnabled()) {
+      saveSnapshot();
+    }
+  }
+
+  private void warmUp() {
+    long start = System.currentTimeMillis();
+    try {
+      restoreSnapshot();
+      client.warmUp();
+      saveSnapshot();
+      LOGGER.info("OpenID Connect provider warm-up finished in {} ms", System.currentTimeMillis() - start);
+    } catch (RuntimeException e) {
+      LOGGER.warn("OpenID Connect provider warm-up failed after {} ms: {}", System.currentTimeMillis() - start,
+          e.getMessage());
+    }
+  }
+
+  private void restoreSnapshot() {
+    ProviderSnapshot snapshot = snapshotStore.load();
+    try {
+      if (snapshot != null && client.restore(snapshot)) {
+        LOGGER.info("OpenID Connect provider metadata restored from snapshot of {}",
+            new Date(snapshot.getTimestamp()));
+      }
+    } catch (RuntimeException e) {
+      // The provider metadata is retrieved by the warm-up instead
+      LOGGER.warn("Restoring OpenID Connect provider snapshot failed: {}", e.getMessage());
+    }
+  }
+
+  private void saveSnapshot() {
+    ProviderSnapshot snapshot = client.createSnapshot();
+    if (snapshot != null) {
+      snapshotStore.save(snapshot);
+    }
+  }
+
+}
@@ -0,0 +1,230 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.RequestBuilder;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+/**
+ * {@link HttpTransport} which keeps the connections to the identity provider alive in a bounded pool, so subsequent
+ * requests don't need a new TCP connection and TLS handshake. Idle connections are evicted from the pool after the
+ * given timeout. Response content exceeding the given maximum size (in bytes, 0 for unlimited) is rejected with a
+ * {@link ResponseTooLargeException}.
+ * <p>
+ * If compression is enabled then <code>gzip</code> and <code>deflate</code> encoded responses are requested and
+ * decompressed while they are read. The maximum size applies to the decompressed content.
+ * <p>
+ * Waiting for a connection from the exhausted pool is limited by the connect timeout of the request (which is already
+ * reduced to the remaining time of the login).
+ * <p>
+ * Like <code>HttpURLConnection</code> the proxy settings from the JVM's system properties (e.g.
+ * <code>http.nonProxyHosts</code>) are used.
+ */
+public class PooledHttpTransport implements HttpTransport, Closeable {
+
+  private final PoolingHttpClientConnectionManager connectionManager;
+  private final CloseableHttpClient httpClient;
+  private final long maxResponseSize;
+
+  public PooledHttpTransport(int maxConnections, int maxConnectionsPerHost, long idleTimeoutSeconds,
+      long maxResponseSize, boolean compression) {
+    this.maxResponseSize = maxResponseSize;
+    this.connectionManager = new PoolingHttpClientConnectionManager();
+    connectionManager.setMaxTotal(maxConnections);
+    connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+    HttpClientBuilder builder = HttpClientBuilder.create().useSystemProperties().setConnectionManager(connectionManager)
+        .evictExpiredConnections().evictIdleConnections(idleTimeoutSeconds, TimeUnit.SECONDS)
+        .disableAutomaticRetries().disableCookieManagement();
+    if (!compression) {
+      builder.disableContentCompression();
+    }
+    this.httpClient = builder.build();
+  }
+
+  @Override
+  public <T, E extends Exception> T send(HTTPRequest request, ResponseHandler<T, E> handler) throws IOException, E {
+    try (CloseableHttpResponse response = httpClient.execute(toRequestBuilder(request).build())) {
+      HttpEntity entity = response.getEntity();
+      if (entity == null) {
+        return handler.handle(toHTTPResponse(response), new ByteArrayInputStream(new byte[0]));
+      }
+      if (maxResponseSize > 0 && entity.getContentLength() > maxResponseSize) {
+        throw new ResponseTooLargeException(maxResponseSize);
+      }
+      InputStream content = maxResponseSize > 0 ? new LimitedInputStream(entity.getContent(), maxResponseSize)
+          : entity.getContent();
+      T result = handler.handle(toHTTPResponse(response), content);
+      consumeQuietly(content);
+      return result;
+    }
+  }
+
+  /**
+   * Reads the remaining content (if any), so the connection can be reused. If the content exceeds the maximum size then
+   * the connection is closed instead.
+   */
+  private static void consumeQuietly(InputStream content) {
+    try {
+      byte[] buffer = new byte[8192];
+      while (content.read(buffer) != -1) {
+        // Discard remaining content
+      }
+    } catch (IOException e) {
+      // Connection is closed with the response
+    }
+  }
+
+  private static RequestBuilder toRequestBuilder(HTTPRequest request) throws IOException {
+    RequestBuilder builder = RequestBuilder.create(request.getMethod().name());
+    String query = request.getQuery();
+    try {
+      if (query != null && (request.getMethod() == HTTPRequest.Method.GET
+          || request.getMethod() == HTTPRequest.Method.DELETE)) {
+        String url = request.getURL().toString();
+        builder.setUri(url + (url.contains("?") ? "&" : "?") + query);
+      } else {
+        builder.setUri(request.getURL().toURI());
+        if (query != null) {
+          builder.setEntity(new StringEntity(query, StandardCharsets.UTF_8));
+        }
+      }
+    } catch (URISyntaxException e) {
+      throw new IOException("Invalid request URL: " + e.getMessage(), e);
+    }
+    for (Map.Entry<String, List<String>> header : request.getHeaderMap().entrySet()) {
+      for (String value : header.getValue()) {
+        builder.addHeader(header.getKey(), value);
+      }
+    }
+    RequestConfig.Builder config = RequestConfig.custom().setRedirectsEnabled(request.getFollowRedirects());
+    if (request.getConnectTimeout() > 0) {
+      config.setConnectionRequestTimeout(request.getConnectTimeout());
+      config.setConnectTimeout(request.getConnectTimeout());
+    }
+    if (request.getReadTimeout() > 0) {
+      config.setSocketTimeout(request.getReadTimeout());
+    }
+    return builder.setConfig(config.build());
+  }
+
+  private static HTTPResponse toHTTPResponse(CloseableHttpResponse response) {
+    HTTPResponse httpResponse = new HTTPResponse(response.getStatusLine().getStatusCode());
+    httpResponse.setStatusMessage(response.getStatusLine().getReasonPhrase());
+    for (Header header : response.getAllHeaders()) {
+      if ("Content-Type".equalsIgnoreCase(header.getName())) {
+        try {
+          httpResponse.setContentType(header.getValue());
+        } catch (ParseException e) {
+          // Ignore invalid content type
+        }
+      } else {
+        List<String> values = httpResponse.getHeaderValues(header.getName());
+        if (values == null || values.isEmpty()) {
+          httpResponse.setHeader(header.getName(), header.getValue());
+        } else {
+          String[] allValues = values.toArray(new String[values.size() + 1]);
+          allValues[values.size()] = header.getValue();
+          httpResponse.setHeader(header.getName(), allValues);
+        }
+      }
+    }
+    return httpResponse;
+  }
+
+  /**
+   * Stream which fails with a {@link ResponseTooLargeException} if more than the given number of bytes are read.
+   */
+  private static class LimitedInputStream extends FilterInputStream {
+    private final long maxSize;
+    private long count;
+
+    private LimitedInputStream(InputStream in, long maxSize) {
+      super(in);
+      this.maxSize = maxSize;
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1) {
+        count(1);
+      }
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int read = super.read(b, off, len);
+      if (read > 0) {
+        count(read);
+      }
+      return read;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      count(skipped);
+      return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void count(long read) throws ResponseTooLargeException {
+      count += read;
+      if (count > maxSize) {
+        throw new ResponseTooLargeException(maxSize);
+      }
+    }
+  }
+
+  int getAvailableConnections() {
+    return connectionManager.getTotalStats().getAvailable();
+  }
+
+  @Override
+  public void close() throws IOException {
+    httpClient.close();
+  }
+
+}
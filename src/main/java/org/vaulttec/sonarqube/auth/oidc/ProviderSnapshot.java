@@ -0,0 +1,61 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+
+/**
+ * Provider metadata and JWK set retrieved from an issuer at a given point in time.
+ */
+public class ProviderSnapshot {
+
+  private final String issuerUri;
+  private final OIDCProviderMetadata providerMetadata;
+  private final JWKSet jwkSet;
+  private final long timestamp;
+
+  public ProviderSnapshot(String issuerUri, OIDCProviderMetadata providerMetadata, @Nullable JWKSet jwkSet,
+      long timestamp) {
+    this.issuerUri = issuerUri;
+    this.providerMetadata = providerMetadata;
+    this.jwkSet = jwkSet;
+    this.timestamp = timestamp;
+  }
+
+  public String getIssuerUri() {
+    return issuerUri;
+  }
+
+  public OIDCProviderMetadata getProviderMetadata() {
+    return providerMetadata;
+  }
+
+  @CheckForNull
+  public JWKSet getJwkSet() {
+    return jwkSet;
+  }
+
+  public long getTimestamp() {
+    return timestamp;
+  }
+
+}
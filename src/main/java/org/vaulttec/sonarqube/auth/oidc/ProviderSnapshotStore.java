@@ -0,0 +1,144 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.annotation.CheckForNull;
+
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.util.Base64URL;
+import com.nimbusds.jose.util.JSONObjectUtils;
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+
+import org.sonar.api.platform.ServerFileSystem;
+import org.sonar.api.server.ServerSide;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Persists a {@link ProviderSnapshot} in SonarQube's data directory, so the provider metadata and JWK set are
+ * available right after a restart. Each document is stored together with a SHA-256 checksum, and snapshots with
+ * checksum mismatches are ignored.
+ */
+@ServerSide
+public class ProviderSnapshotStore {
+
+  private static final Logger LOGGER = Loggers.get(ProviderSnapshotStore.class);
+
+  static final String DIRECTORY_NAME = "authoidc";
+  static final String FILE_NAME = "provider-snapshot.json";
+  private static final int VERSION = 1;
+
+  private final OidcConfiguration config;
+  private final ServerFileSystem fileSystem;
+
+  public ProviderSnapshotStore(OidcConfiguration config, ServerFileSystem fileSystem) {
+    this.config = config;
+    this.fileSystem = fileSystem;
+  }
+
+  public void save(ProviderSnapshot snapshot) {
+    String metadata = snapshot.getProviderMetadata().toJSONObject().toJSONString();
+    Map<String, Object> json = new LinkedHashMap<>();
+    json.put("version", VERSION);
+    json.put("timestamp", snapshot.getTimestamp());
+    json.put("issuer", snapshot.getIssuerUri());
+    json.put("metadata", metadata);
+    json.put("metadataChecksum", checksum(metadata));
+    if (snapshot.getJwkSet() != null) {
+      String jwkSet = snapshot.getJwkSet().toString(true);
+      json.put("jwkSet", jwkSet);
+      json.put("jwkSetChecksum", checksum(jwkSet));
+    }
+    Path file = getFile();
+    try {
+      Files.createDirectories(file.getParent());
+      Path tempFile = Files.createTempFile(file.getParent(), FILE_NAME, ".tmp");
+      Files.write(tempFile, JSONObjectUtils.toJSONString(json).getBytes(UTF_8));
+      Files.move(tempFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      LOGGER.debug("Saved provider snapshot to {}", file);
+    } catch (IOException e) {
+      LOGGER.warn("Saving provider snapshot to {} failed: {}", file, e.getMessage());
+    }
+  }
+
+  @CheckForNull
+  public ProviderSnapshot load() {
+    Path file = getFile();
+    try {
+      Map<String, Object> json = JSONObjectUtils.parse(new String(Files.readAllBytes(file), UTF_8));
+      if (JSONObjectUtils.getLong(json, "version") != VERSION) {
+        LOGGER.debug("Ignoring provider snapshot {} with unsupported version", file);
+        return null;
+      }
+      String metadata = getVerifiedString(json, "metadata");
+      String jwkSet = json.containsKey("jwkSet") ? getVerifiedString(json, "jwkSet") : null;
+      if (metadata == null || (json.containsKey("jwkSet") && jwkSet == null)) {
+        LOGGER.warn("Ignoring provider snapshot {} with invalid checksum", file);
+        return null;
+      }
+      String issuer = JSONObjectUtils.getString(json, "issuer");
+      if (issuer == null || issuer.isEmpty()) {
+        LOGGER.warn("Ignoring provider snapshot {} without issuer", file);
+        return null;
+      }
+      return new ProviderSnapshot(issuer, OIDCProviderMetadata.parse(metadata),
+          jwkSet == null ? null : JWKSet.parse(jwkSet), JSONObjectUtils.getLong(json, "timestamp"));
+    } catch (NoSuchFileException e) {
+      return null;
+    } catch (IOException | java.text.ParseException | com.nimbusds.oauth2.sdk.ParseException e) {
+      LOGGER.warn("Loading provider snapshot from {} failed: {}", file, e.getMessage());
+      return null;
+    }
+  }
+
+  Path getFile() {
+    File dataDir = new File(config.getDataPath());
+    if (!dataDir.isAbsolute()) {
+      dataDir = new File(fileSystem.getHomeDir(), config.getDataPath());
+    }
+    return dataDir.toPath().resolve(DIRECTORY_NAME).resolve(FILE_NAME);
+  }
+
+  @CheckForNull
+  private static String getVerifiedString(Map<String, Object> json, String name) throws java.text.ParseException {
+    String value = JSONObjectUtils.getString(json, name);
+    return value != null && checksum(value).equals(JSONObjectUtils.getString(json, name + "Checksum")) ? value : null;
+  }
+
+  private static String checksum(String value) {
+    try {
+      return Base64URL.encode(MessageDigest.getInstance("SHA-256").digest(value.getBytes(UTF_8))).toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+}
@@ -0,0 +1,327 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.Objects;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Caches a single resource retrieved from the identity provider (e.g. the provider metadata) for a given key. Before
+ * the cached resource expires it's refreshed in the background at a randomized point in time, so concurrent SonarQube
+ * nodes don't hit the identity provider at the same moment.
+ * <p>
+ * If the identity provider isn't available then the last successfully retrieved resource is served for a grace period
+ * while the refresh is retried with an exponential backoff. Failures are cached for a short time, so a flapping
+ * identity provider doesn't block every login until the network timeout is reached. Failures caused by the expired
+ * deadline of a login aren't cached, as they don't tell anything about the identity provider.
+ * <p>
+ * The loader receives the currently cached {@link HttpResource} (if any) for sending a conditional request, and the
+ * deadline of the login waiting for the resource (<code>null</code> for background refreshes). If the
+ * loaded resource specifies a <code>max-age</code> then it's used instead of the configured time-to-live (bounded by
+ * {@link #MIN_MAX_AGE} and {@link #MAX_MAX_AGE}).
+ * <p>
+ * Concurrent loads of the same key are coalesced, so after a restart or an expiry only a single request is sent to
+ * the identity provider and all waiting threads receive its result or error (each waiting within its own deadline).
+ * The request is sent without holding the cache's lock, so e.g. invalidating the cache isn't blocked by a slow
+ * identity provider.
+ */
+public class ResourceCache<T> {
+
+  private static final Logger LOGGER = Loggers.get(ResourceCache.class);
+
+  static final double REFRESH_MIN_RATIO = 0.8;
+  static final double REFRESH_JITTER_RATIO = 0.1;
+  static final long FAILURE_TTL = 10_000;
+  static final long MIN_RETRY_DELAY = 5_000;
+  static final long MAX_RETRY_DELAY = 300_000;
+  static final long MIN_MAX_AGE = 60_000;
+  static final long MAX_MAX_AGE = 86_400_000;
+
+  private final String name;
+  private final Loader<T> loader;
+  private final LongSupplier ttlMillis;
+  private final LongSupplier gracePeriodMillis;
+  private final ScheduledExecutorService executor;
+  private final System2 system2;
+  private final Object loadLock = new Object();
+  private final SingleFlight<String, T> loads = new SingleFlight<>();
+
+  private volatile Entry<T> entry;
+  private volatile Failure failure;
+  private int failedRefreshes;
+  private long generation;
+  private ScheduledFuture<?> scheduledRefresh;
+
+  public ResourceCache(String name, Loader<T> loader,
+      LongSupplier ttlMillis, LongSupplier gracePeriodMillis, ScheduledExecutorService executor, System2 system2) {
+    this.name = name;
+    this.loader = loader;
+    this.ttlMillis = ttlMillis;
+    this.gracePeriodMillis = gracePeriodMillis;
+    this.executor = executor;
+    this.system2 = system2;
+  }
+
+  public T get(@CheckForNull String key) {
+    return get(key, null);
+  }
+
+  /**
+   * Returns the cached resource, or retrieves it within the given deadline.
+   */
+  public T get(@CheckForNull String key, @Nullable Deadline deadline) {
+    Entry<T> current = entry;
+    if (current != null && current.matches(key)) {
+      long now = system2.now();
+      if (now < current.expiresAt) {
+        return current.getValue();
+      }
+      if (now < current.expiresAt + gracePeriodMillis.getAsLong()) {
+        LOGGER.debug("Using stale {} for '{}'", name, key);
+        refreshAsync(key);
+        return current.getValue();
+      }
+    }
+    return load(key, deadline);
+  }
+
+  /**
+   * Retrieves the resource right away, regardless of the state of the cached one.
+   */
+  public T reload(@CheckForNull String key) {
+    return reload(key, null);
+  }
+
+  /**
+   * Retrieves the resource right away within the given deadline, regardless of the state of the cached one.
+   */
+  public T reload(@CheckForNull String key, @Nullable Deadline deadline) {
+    return loads.execute(key, deadline, () -> refreshOrCacheFailure(key, deadline));
+  }
+
+  /**
+   * Returns the cached entry (even if it's expired) without retrieving the resource.
+   */
+  @CheckForNull
+  public Entry<T> peek(@CheckForNull String key) {
+    Entry<T> current = entry;
+    return current != null && current.matches(key) ? current : null;
+  }
+
+  /**
+   * Initializes the cache with a previously retrieved resource (e.g. from a persisted snapshot) which is revalidated
+   * in the background right away. The resource is ignored if it's older than the time-to-live plus the grace period
+   * or if the cache already holds a value.
+   */
+  public boolean prime(@CheckForNull String key, T value, long loadedAt) {
+    synchronized (loadLock) {
+      long ttl = ttlMillis.getAsLong();
+      if (ttl <= 0 || entry != null || loadedAt + ttl + gracePeriodMillis.getAsLong() <= system2.now()) {
+        return false;
+      }
+      entry = new Entry<>(key, HttpResource.of(value), loadedAt, loadedAt + ttl);
+      scheduleRefresh(key, 0);
+      return true;
+    }
+  }
+
+  public void invalidate() {
+    synchronized (loadLock) {
+      generation++;
+      entry = null;
+      failure = null;
+      failedRefreshes = 0;
+      cancelScheduledRefresh();
+    }
+  }
+
+  private T load(@CheckForNull String key, @Nullable Deadline deadline) {
+    return loads.execute(key, deadline, () -> {
+      synchronized (loadLock) {
+        Entry<T> current = entry;
+        if (current != null && current.matches(key) && system2.now() < current.expiresAt) {
+          return current.getValue();
+        }
+        Failure recentFailure = failure;
+        if (recentFailure != null && recentFailure.matches(key) && system2.now() < recentFailure.expiresAt) {
+          LOGGER.debug("Using cached failure of {} for '{}'", name, key);
+          throw recentFailure.exception;
+        }
+      }
+      return refreshOrCacheFailure(key, deadline);
+    });
+  }
+
+  private T refreshOrCacheFailure(@CheckForNull String key, @Nullable Deadline deadline) {
+    try {
+      return refresh(key, deadline);
+    } catch (RuntimeException e) {
+      if (deadline != null && deadline.isExpired()) {
+        LOGGER.debug("Not caching failure of {} for '{}' after login timed out", name, key);
+      } else {
+        synchronized (loadLock) {
+          failure = new Failure(key, e, system2.now() + FAILURE_TTL);
+        }
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Retrieves the resource without holding the lock, and caches it unless the cache was invalidated in the meantime.
+   * Callers are expected to coalesce concurrent refreshes of the same key.
+   */
+  private T refresh(@CheckForNull String key, @Nullable Deadline deadline) {
+    long ttl = ttlMillis.getAsLong();
+    HttpResource<T> cached;
+    long loadGeneration;
+    synchronized (loadLock) {
+      Entry<T> current = entry;
+      cached = ttl > 0 && current != null && current.matches(key) ? current.resource : null;
+      loadGeneration = generation;
+    }
+    HttpResource<T> resource = loader.load(key, cached, deadline);
+    synchronized (loadLock) {
+      if (loadGeneration != generation) {
+        LOGGER.debug("Not caching {} for '{}' as the cache was invalidated", name, key);
+        return resource.getValue();
+      }
+      failure = null;
+      failedRefreshes = 0;
+      if (ttl > 0) {
+        if (resource.getMaxAge() != null) {
+          ttl = Math.max(MIN_MAX_AGE, Math.min(MAX_MAX_AGE, resource.getMaxAge() * 1000));
+        }
+        long now = system2.now();
+        entry = new Entry<>(key, resource, now, now + ttl);
+        long delay = (long) (ttl * (REFRESH_MIN_RATIO
+            + REFRESH_JITTER_RATIO * ThreadLocalRandom.current().nextDouble()));
+        LOGGER.debug("Refreshing {} for '{}' in {} ms", name, key, delay);
+        scheduleRefresh(key, delay);
+      } else {
+        entry = null;
+        cancelScheduledRefresh();
+      }
+    }
+    return resource.getValue();
+  }
+
+  private void backgroundRefresh(@CheckForNull String key) {
+    Entry<T> current = entry;
+    if (current == null || !current.matches(key)) {
+      // Configuration has changed or cache was invalidated in the meantime
+      return;
+    }
+    try {
+      loads.execute(key, () -> refresh(key, null));
+    } catch (RuntimeException e) {
+      synchronized (loadLock) {
+        failure = new Failure(key, e, system2.now() + FAILURE_TTL);
+        failedRefreshes++;
+        long delay = Math.min(MAX_RETRY_DELAY, MIN_RETRY_DELAY << Math.min(failedRefreshes - 1, 16));
+        delay += (long) (delay * REFRESH_JITTER_RATIO * ThreadLocalRandom.current().nextDouble());
+        if (system2.now() + delay < current.expiresAt + gracePeriodMillis.getAsLong()) {
+          LOGGER.warn("Refreshing {} for '{}' failed (retrying in {} ms): {}", name, key, delay, e.getMessage());
+          scheduleRefresh(key, delay);
+        } else {
+          LOGGER.warn("Refreshing {} for '{}' failed: {}", name, key, e.getMessage());
+        }
+      }
+    }
+  }
+
+  private synchronized void refreshAsync(@CheckForNull String key) {
+    if (scheduledRefresh == null || scheduledRefresh.isDone()) {
+      scheduledRefresh = executor.schedule(() -> backgroundRefresh(key), 0, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private synchronized void scheduleRefresh(@CheckForNull String key, long delay) {
+    cancelScheduledRefresh();
+    scheduledRefresh = executor.schedule(() -> backgroundRefresh(key), delay, TimeUnit.MILLISECONDS);
+  }
+
+  private synchronized void cancelScheduledRefresh() {
+    if (scheduledRefresh != null) {
+      scheduledRefresh.cancel(false);
+      scheduledRefresh = null;
+    }
+  }
+
+  /**
+   * Retrieves the resource for the given key.
+   */
+  @FunctionalInterface
+  public interface Loader<T> {
+    HttpResource<T> load(@CheckForNull String key, @Nullable HttpResource<T> cached, @Nullable Deadline deadline);
+  }
+
+  static class Entry<T> {
+    private final String key;
+    private final HttpResource<T> resource;
+    private final long loadedAt;
+    private final long expiresAt;
+
+    private Entry(@CheckForNull String key, HttpResource<T> resource, long loadedAt, long expiresAt) {
+      this.key = key;
+      this.resource = resource;
+      this.loadedAt = loadedAt;
+      this.expiresAt = expiresAt;
+    }
+
+    T getValue() {
+      return resource.getValue();
+    }
+
+    long getLoadedAt() {
+      return loadedAt;
+    }
+
+    private boolean matches(@CheckForNull String otherKey) {
+      return Objects.equals(key, otherKey);
+    }
+  }
+
+  private static class Failure {
+    private final String key;
+    private final RuntimeException exception;
+    private final long expiresAt;
+
+    private Failure(@CheckForNull String key, RuntimeException exception, long expiresAt) {
+      this.key = key;
+      this.exception = exception;
+      this.expiresAt = expiresAt;
+    }
+
+    private boolean matches(@CheckForNull String otherKey) {
+      return Objects.equals(key, otherKey);
+    }
+  }
+
+}
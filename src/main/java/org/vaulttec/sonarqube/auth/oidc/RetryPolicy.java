@@ -0,0 +1,110 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.UnknownHostException;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.net.ssl.SSLException;
+
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Retries idempotent requests to the identity provider which failed with a transient I/O error (e.g. a connection
+ * reset by a proxy or load balancer). Between attempts the policy waits between half and all of an exponentially
+ * growing backoff ("equal jitter"), so concurrent logins don't retry in lockstep. No attempt is started if the
+ * backoff would exceed the given deadline.
+ * <p>
+ * Timeouts aren't retried as they already used up their share of the deadline, and neither are unknown hosts, TLS
+ * failures or oversized responses as they won't go away by trying again.
+ */
+public final class RetryPolicy {
+
+  private static final Logger LOGGER = Loggers.get(RetryPolicy.class);
+
+  static final long INITIAL_BACKOFF_MILLIS = 100;
+  static final long MAX_BACKOFF_MILLIS = 2000;
+
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final long maxBackoffMillis;
+
+  public RetryPolicy(int maxAttempts) {
+    this(maxAttempts, INITIAL_BACKOFF_MILLIS, MAX_BACKOFF_MILLIS);
+  }
+
+  RetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis) {
+    this.maxAttempts = Math.max(1, maxAttempts);
+    this.initialBackoffMillis = initialBackoffMillis;
+    this.maxBackoffMillis = maxBackoffMillis;
+  }
+
+  public int getMaxAttempts() {
+    return maxAttempts;
+  }
+
+  /**
+   * Executes the given idempotent request until it succeeds, fails with a non-transient error, the attempts are used
+   * up or the deadline doesn't leave time for another attempt. Then the last error is rethrown.
+   */
+  public <T, E extends Exception> T execute(Deadline deadline, Request<T, E> request) throws IOException, E {
+    for (int attempt = 1;; attempt++) {
+      try {
+        return request.execute();
+      } catch (IOException e) {
+        if (attempt >= maxAttempts || !isRetryable(e)) {
+          throw e;
+        }
+        long backoff = backoffMillis(attempt);
+        if (!deadline.hasRemaining(backoff)) {
+          throw e;
+        }
+        LOGGER.debug("Request to identity provider failed ({}) - retrying in {} ms (attempt {} of {})",
+            e.getMessage(), backoff, attempt + 1, maxAttempts);
+        try {
+          Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns a random backoff between half and all of the exponentially growing upper bound for the given attempt.
+   */
+  long backoffMillis(int attempt) {
+    long bound = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt - 1, 20));
+    return bound / 2 + ThreadLocalRandom.current().nextLong(bound - bound / 2 + 1);
+  }
+
+  static boolean isRetryable(IOException e) {
+    return !(e instanceof InterruptedIOException || e instanceof UnknownHostException || e instanceof SSLException
+        || e instanceof ResponseTooLargeException);
+  }
+
+  @FunctionalInterface
+  public interface Request<T, E extends Exception> {
+    T execute() throws IOException, E;
+  }
+
+}
@@ -0,0 +1,41 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import org.sonar.api.config.GlobalPropertyChangeHandler;
+
+/**
+ * Discards the configuration snapshot when a setting used by it is changed, so the change is applied to the next
+ * login right away.
+ */
+public class SettingsChangeHandler extends GlobalPropertyChangeHandler {
+
+  private final OidcConfiguration config;
+
+  public SettingsChangeHandler(OidcConfiguration config) {
+    this.config = config;
+  }
+
+  @Override
+  public void onChange(PropertyChange change) {
+    if (OidcConfiguration.isSnapshotKey(change.getKey())) {
+      config.invalidate();
+    }
+  }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Coalesces concurrent calls with the same key, so only a single call per key is in flight. Callers arriving while a
+ * call is in flight don't start their own one but wait for it and receive the same result or exception. Waiting is
+ * bounded by the waiter's own deadline, as the call in flight runs within the deadline of the caller which started it.
+ */
+public final class SingleFlight<K, V> {
+
+  private static final Object NULL_KEY = new Object();
+
+  private final ConcurrentMap<Object, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+
+  public V execute(@Nullable K key, Supplier<V> call) {
+    return execute(key, null, call);
+  }
+
+  /**
+   * Executes the given call, or waits within the given deadline for the call with the same key which is in flight.
+   *
+   * @throws IllegalStateException if the deadline is exceeded while waiting
+   */
+  public V execute(@Nullable K key, @Nullable Deadline deadline, Supplier<V> call) {
+    Object callKey = key != null ? key : NULL_KEY;
+    CompletableFuture<V> result = new CompletableFuture<>();
+    CompletableFuture<V> inFlight = calls.putIfAbsent(callKey, result);
+    if (inFlight != null) {
+      return await(inFlight, deadline != null ? deadline : Deadline.none());
+    }
+    try {
+      V value = call.get();
+      result.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      result.completeExceptionally(e);
+      throw e;
+    } finally {
+      calls.remove(callKey, result);
+    }
+  }
+
+  private static <V> V await(CompletableFuture<V> inFlight, Deadline deadline) {
+    try {
+      return inFlight.get(deadline.remainingMillis(), TimeUnit.MILLISECONDS);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } catch (TimeoutException e) {
+      // The call in flight isn't cancelled, as other callers may still wait for it
+      throw new IllegalStateException("Login timed out: Identity provider didn't respond in time");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Login interrupted", e);
+    }
+  }
+
+}
@@ -18,12 +18,14 @@
 package org.vaulttec.sonarqube.auth.oidc;
 
 import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+import org.sonar.api.Startable;
 import org.sonar.api.server.ServerSide;
 import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
 
 import java.util.*;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 import static java.lang.String.format;
 import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.*;
@@ -32,25 +34,78 @@ import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.*;
  * Converts OpenID Connect {@link UserInfo} to SonarQube {@link UserIdentity}.
  */
 @ServerSide
-public class UserIdentityFactory {
+public class UserIdentityFactory implements Startable {
+
+  private static final Logger LOGGER = Loggers.get(UserIdentityFactory.class);
 
   private final OidcConfiguration config;
+  private final GroupMappingProvider groupMapping;
+  private final GroupFingerprintCache groupFingerprints;
+  private final LdapGroupEnricher ldapGroups;
 
   public UserIdentityFactory(OidcConfiguration config) {
+    this(config, System2.INSTANCE);
+  }
+
+  UserIdentityFactory(OidcConfiguration config, System2 system2) {
     this.config = config;
+    this.groupMapping = new GroupMappingProvider(config, system2);
+    this.groupFingerprints = new GroupFingerprintCache(config.syncGroupsCacheSize(),
+        () -> config.snapshot().getSyncGroupsMaxAge() * 1000, system2);
+    this.ldapGroups = new LdapGroupEnricher(config, system2);
+  }
+
+  @Override
+  public void start() {
+    // Nothing to do here - the LDAP connections are opened lazily
+  }
+
+  @Override
+  public void stop() {
+    ldapGroups.close();
   }
 
   public UserIdentity create(UserInfo userInfo) {
+    return create(userInfo, Deadline.after(config.snapshot().getLoginTimeout()));
+  }
+
+  /**
+   * Creates the user identity from the given user info. The LDAP directory (if any) is searched within the given
+   * deadline of the login.
+   */
+  public UserIdentity create(UserInfo userInfo, Deadline deadline) {
+    ConfigurationSnapshot settings = config.snapshot();
+    String login = getLogin(userInfo, settings);
     UserIdentity.Builder builder = UserIdentity.builder().setProviderId(userInfo.getSubject().getValue())
-        .setProviderLogin(getLogin(userInfo)).setName(getName(userInfo)).setEmail(userInfo.getEmailAddress());
-    if (config.syncGroups()) {
-      builder.setGroups(getGroups(userInfo));
+        .setProviderLogin(login).setName(getName(userInfo)).setEmail(userInfo.getEmailAddress());
+    if (settings.isSyncGroups()) {
+      Set<String> groups = getGroups(userInfo, settings);
+      if (ldapGroups.isEnabled() && !addLdapGroups(userInfo, login, groups, settings, deadline)) {
+        // Without groups SonarQube keeps the user's current groups instead of dropping the ones from the directory
+        LOGGER.debug("Skipping synchronization of groups");
+      } else if (groupFingerprints.isUnchanged(userInfo.getSubject().getValue(), groups)) {
+        // Without groups SonarQube keeps the user's current groups
+        LOGGER.debug("Skipping synchronization of unchanged groups");
+      } else {
+        builder.setGroups(groups);
+      }
     }
     return builder.build();
   }
 
-  private String getLogin(UserInfo userInfo) {
-    switch (config.loginStrategy()) {
+  /**
+   * Records the groups of the given identity after SonarQube synchronized them, so the synchronization can be skipped
+   * as long as they don't change.
+   */
+  public void groupsSynchronized(UserIdentity userIdentity) {
+    if (userIdentity.shouldSyncGroups()) {
+      groupFingerprints.put(userIdentity.getProviderId(), userIdentity.getGroups());
+    }
+  }
+
+  private static String getLogin(UserInfo userInfo, ConfigurationSnapshot settings) {
+    String loginStrategy = settings.getLoginStrategy();
+    switch (loginStrategy) {
     case LOGIN_STRATEGY_PREFERRED_USERNAME:
       if (userInfo.getPreferredUsername() == null) {
         throw new IllegalStateException("Claim 'preferred_username' is missing in user info - "
@@ -68,18 +123,20 @@ public class UserIdentityFactory {
     case LOGIN_STRATEGY_UNIQUE:
       return generateUniqueLogin(userInfo);
     case LOGIN_STRATEGY_CUSTOM_CLAIM:
-      if (userInfo.getStringClaim(config.loginStrategyCustomClaimName()) == null) {
+      ClaimPath path = settings.getLoginClaimPath();
+      Object login = path.resolve(userInfo);
+      if (!(login instanceof String)) {
         throw new IllegalStateException(
-            "Custom claim '" + config.loginStrategyCustomClaimName() + "' is missing in user info - "
+            "Custom claim '" + path + "' is missing in user info - "
                 + "make sure your OIDC provider supports this claim in the id token or at the user info endpoint");
       }
-      return userInfo.getStringClaim(config.loginStrategyCustomClaimName());
+      return (String) login;
     default:
-      throw new IllegalStateException(format("Login strategy not supported: %s", config.loginStrategy()));
+      throw new IllegalStateException(format("Login strategy not supported: %s", loginStrategy));
     }
   }
 
-  private String generateUniqueLogin(UserInfo userInfo) {
+  private static String generateUniqueLogin(UserInfo userInfo) {
     return format("%s@%s", userInfo.getSubject().getValue(), OidcIdentityProvider.KEY);
   }
 
@@ -92,27 +149,62 @@ public class UserIdentityFactory {
     return name;
   }
 
-  private Set<String> getGroups(UserInfo userInfo) {
-    Object groupsClaim = userInfo.getClaim(config.syncGroupsClaimName());
+  private Set<String> getGroups(UserInfo userInfo, ConfigurationSnapshot settings) {
+    ClaimPath path = settings.getGroupsClaimPath();
+    Object groupsClaim = path.resolve(userInfo);
     if (groupsClaim == null) {
-      throw new IllegalStateException("Groups claim '" + config.syncGroupsClaimName() + "' is missing in user info - "
+      throw new IllegalStateException("Groups claim '" + path + "' is missing in user info - "
           + "make sure your OIDC provider supports this claim in the id token or at the user info endpoint");
     }
-    List<String> groups;
+    // The groups are filtered and mapped while the claim is parsed, so irrelevant groups are neither copied nor
+    // synchronized
+    GroupFilter filter = settings.getGroupFilter();
+    GroupMapping mapping = groupMapping.get();
+    Set<String> groups = new HashSet<>();
     if (groupsClaim instanceof List) {
-      groups = (List) groupsClaim;
-    } else { // String
+      for (Object group : (List<?>) groupsClaim) {
+        if (group != null && filter.accept(group.toString())) {
+          mapping.map(group.toString(), groups);
+        }
+      }
+    } else if (groupsClaim instanceof String) {
       if (((String) groupsClaim).contains(",")) {
         // comma-separated list of groups
-        groups = Stream.of(((String) groupsClaim).split(","))
-            .map(String::trim)
-            .collect(Collectors.toList());
-      } else {
+        for (String group : ((String) groupsClaim).split(",")) {
+          if (filter.accept(group.trim())) {
+            mapping.map(group.trim(), groups);
+          }
+        }
+      } else if (filter.accept((String) groupsClaim)) {
         // single group
-        groups = Collections.singletonList((String) groupsClaim);
+        mapping.map((String) groupsClaim, groups);
+      }
+    } else {
+      throw new IllegalStateException("Groups claim '" + path + "' has unsupported type "
+          + groupsClaim.getClass().getSimpleName() + " - expected a list or a string");
+    }
+    return groups;
+  }
+
+  /**
+   * Adds the (filtered and mapped) groups of the user found in the LDAP directory. Returns <code>false</code> if the
+   * directory couldn't be searched.
+   */
+  private boolean addLdapGroups(UserInfo userInfo, String login, Set<String> groups,
+      ConfigurationSnapshot settings, Deadline deadline) {
+    Set<String> directoryGroups = ldapGroups.getGroups(userInfo.getSubject().getValue(), login,
+        userInfo.getEmailAddress(), deadline);
+    if (directoryGroups == null) {
+      return false;
+    }
+    GroupFilter filter = settings.getGroupFilter();
+    GroupMapping mapping = groupMapping.get();
+    for (String group : directoryGroups) {
+      if (filter.accept(group)) {
+        mapping.map(group, groups);
       }
     }
-    return new HashSet<>(groups);
+    return true;
   }
 
 }
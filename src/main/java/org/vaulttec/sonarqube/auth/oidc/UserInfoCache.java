@@ -0,0 +1,62 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.function.LongSupplier;
+
+import javax.annotation.CheckForNull;
+
+import org.sonar.api.utils.System2;
+
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+/**
+ * Caches the claims retrieved from the identity provider's UserInfo endpoint per subject, so a user logging in again
+ * within the time-to-live doesn't need another UserInfo request. The cache holds at most the given number of subjects
+ * and evicts the least recently used one when it's full.
+ */
+public class UserInfoCache {
+
+  private final ExpiringCache<UserInfo> entries;
+
+  public UserInfoCache(int maxSize, LongSupplier ttlMillis, System2 system2) {
+    this.entries = new ExpiringCache<>(maxSize, ttlMillis, system2);
+  }
+
+  public boolean isEnabled() {
+    return entries.isEnabled();
+  }
+
+  @CheckForNull
+  public UserInfo get(String subject) {
+    return entries.get(subject);
+  }
+
+  public void put(String subject, UserInfo userInfo) {
+    entries.put(subject, userInfo);
+  }
+
+  public void invalidate() {
+    entries.invalidate();
+  }
+
+  int size() {
+    return entries.size();
+  }
+
+}
@@ -25,7 +25,6 @@ import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.LOGIN_STRATEGY_
 
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
-import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
 
 import org.sonar.api.config.internal.MapSettings;
 
@@ -85,8 +84,8 @@ public abstract class AbstractOidcTest {
 
   protected OidcClient createSpyOidcClient() {
     OidcClient client = spy(new OidcClient(config));
-    doReturn(getProviderMetadata(config.issuerUri())).when(client).getProviderMetadata();
-    doReturn(mock(IDTokenValidator.class)).when(client).createValidator(any(), any());
+    doReturn(getProviderMetadata(config.issuerUri())).when(client).getProviderMetadata(any());
+    doReturn(mock(IdTokenVerifier.class)).when(client).createValidator(any(), any());
     return client;
   }
 
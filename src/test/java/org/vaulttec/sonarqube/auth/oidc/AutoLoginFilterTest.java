@@ -57,6 +57,7 @@ public class AutoLoginFilterTest {
     when(configurationMock.getBoolean("sonar.auth." + OidcIdentityProvider.KEY + ".autoLogin"))
         .thenReturn(Optional.of(true));
     when(configurationMock.get(CoreProperties.SERVER_BASE_URL)).thenReturn(Optional.of(SONAR_URL));
+    when(configurationMock.getStringArray(anyString())).thenReturn(new String[0]);
 
     ServletFilter filter = new AutoLoginFilter(new OidcConfiguration(configurationMock));
     filter.init(filterConfig);
@@ -93,6 +94,7 @@ public class AutoLoginFilterTest {
     when(configurationMock.getBoolean("sonar.auth." + OidcIdentityProvider.KEY + ".autoLogin"))
         .thenReturn(Optional.of(false));
     when(configurationMock.get(CoreProperties.SERVER_BASE_URL)).thenReturn(Optional.of(SONAR_URL));
+    when(configurationMock.getStringArray(anyString())).thenReturn(new String[0]);
 
     ServletFilter filter = new AutoLoginFilter(new OidcConfiguration(configurationMock));
     filter.init(filterConfig);
@@ -125,6 +127,7 @@ public class AutoLoginFilterTest {
     when(configurationMock.get(OidcConfiguration.CLIENT_ID)).thenReturn(Optional.of("id"));
     when(configurationMock.getBoolean(OidcConfiguration.AUTO_LOGIN)).thenReturn(Optional.of(true));
     when(configurationMock.get(CoreProperties.SERVER_BASE_URL)).thenReturn(Optional.of(SONAR_URL));
+    when(configurationMock.getStringArray(anyString())).thenReturn(new String[0]);
 
     ServletFilter filter = new AutoLoginFilter(new OidcConfiguration(configurationMock));
     filter.init(filterConfig);
@@ -0,0 +1,174 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+public class ClaimCoverageTest {
+
+  private final MapSettings settings = new MapSettings(new PropertyDefinitions(OidcConfiguration.definitions()));
+  private final OidcConfiguration config = new OidcConfiguration(settings.asConfig());
+
+  @Test
+  public void required_claims() {
+    assertThat(config.snapshot().getRequiredClaims()).containsExactly(setOf("name", "preferred_username"),
+        setOf("preferred_username"));
+
+    settings.setProperty(OidcConfiguration.LOGIN_STRATEGY, OidcConfiguration.LOGIN_STRATEGY_EMAIL);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "roles");
+    config.invalidate();
+    assertThat(config.snapshot().getRequiredClaims()).containsExactly(setOf("name", "preferred_username"),
+        setOf("email"), setOf("roles"));
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access.roles");
+    config.invalidate();
+    assertThat(config.snapshot().getRequiredClaims()).containsExactly(setOf("name", "preferred_username"),
+        setOf("email"), setOf("realm_access.roles", "realm_access"));
+    assertThat(config.snapshot().getUserInfoClaimNames()).containsExactlyInAnyOrder("sub", "name",
+        "preferred_username", "email", "realm_access.roles", "realm_access");
+  }
+
+  @Test
+  public void required_claims_without_invalid_claim_path() {
+    settings.setProperty(OidcConfiguration.LOGIN_STRATEGY, OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM);
+    settings.setProperty(OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM_NAME, "/");
+    assertThat(config.snapshot().getRequiredClaims()).containsExactly(setOf("name", "preferred_username"));
+  }
+
+  @Test
+  public void learn_fast_path() {
+    ClaimCoverage underTest = newClaimCoverage(null);
+    assertThat(underTest.isUserInfoRequired(claims("name"))).isTrue();
+    for (int i = 1; i < ClaimCoverage.FAST_PATH_THRESHOLD; i++) {
+      assertThat(underTest.isUserInfoRequired(claims("name", "preferred_username"))).isFalse();
+      assertThat(underTest.isFastPath()).isFalse();
+    }
+    assertThat(underTest.isUserInfoRequired(claims("name", "preferred_username"))).isFalse();
+    assertThat(underTest.isFastPath()).isTrue();
+
+    assertThat(underTest.isUserInfoRequired(claims("preferred_username"))).isFalse();
+    assertThat(underTest.isFastPath()).isTrue();
+
+    assertThat(underTest.getFallbackPathLogins()).isEqualTo(ClaimCoverage.FAST_PATH_THRESHOLD + 1);
+    assertThat(underTest.getFastPathLogins()).isEqualTo(1);
+    assertThat(underTest.getUserInfoRequests()).isEqualTo(1);
+  }
+
+  @Test
+  public void fall_back_if_token_lacks_claim() {
+    ClaimCoverage underTest = newClaimCoverage(null);
+    for (int i = 0; i < ClaimCoverage.FAST_PATH_THRESHOLD; i++) {
+      underTest.isUserInfoRequired(claims("preferred_username"));
+    }
+    assertThat(underTest.isFastPath()).isTrue();
+
+    // every incomplete ID token requests the UserInfo endpoint, also the first one on the fast path
+    for (int i = 1; i < ClaimCoverage.FAST_PATH_THRESHOLD; i++) {
+      assertThat(underTest.isUserInfoRequired(claims("name"))).isTrue();
+      assertThat(underTest.isFastPath()).isFalse();
+    }
+    assertThat(underTest.isUserInfoRequired(claims("preferred_username"))).isFalse();
+    assertThat(underTest.getFastPathLogins()).isEqualTo(1);
+    assertThat(underTest.getUserInfoRequests()).isEqualTo(ClaimCoverage.FAST_PATH_THRESHOLD - 1);
+  }
+
+  @Test
+  public void stay_on_fast_path_while_tokens_are_covered() {
+    ClaimCoverage underTest = newClaimCoverage(null);
+    for (int i = 0; i < 3 * ClaimCoverage.FAST_PATH_THRESHOLD; i++) {
+      assertThat(underTest.isUserInfoRequired(claims("preferred_username"))).isFalse();
+    }
+    assertThat(underTest.isFastPath()).isTrue();
+    assertThat(underTest.getFastPathLogins()).isEqualTo(2 * ClaimCoverage.FAST_PATH_THRESHOLD);
+    assertThat(underTest.getUserInfoRequests()).isZero();
+  }
+
+  @Test
+  public void no_fast_path_if_claims_not_advertised() {
+    ClaimCoverage underTest = newClaimCoverage(Arrays.asList("sub", "name", "email"));
+    for (int i = 0; i < 2 * ClaimCoverage.FAST_PATH_THRESHOLD; i++) {
+      assertThat(underTest.isUserInfoRequired(claims("preferred_username"))).isFalse();
+    }
+    assertThat(underTest.isFastPath()).isFalse();
+    assertThat(underTest.getFallbackPathLogins()).isEqualTo(2 * ClaimCoverage.FAST_PATH_THRESHOLD);
+  }
+
+  @Test
+  public void matches() {
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    List<Set<String>> requiredClaims = config.snapshot().getRequiredClaims();
+    List<ClaimPath> requiredPaths = config.snapshot().getRequiredClaimPaths();
+    ClaimCoverage underTest = newClaimCoverage(null);
+    assertThat(underTest.matches("issuer", requiredClaims, requiredPaths, null)).isTrue();
+    assertThat(underTest.matches("other", requiredClaims, requiredPaths, null)).isFalse();
+    assertThat(underTest.matches("issuer", Collections.emptyList(), requiredPaths, null)).isFalse();
+    assertThat(underTest.matches("issuer", requiredClaims, Collections.emptyList(), null)).isFalse();
+    assertThat(underTest.matches("issuer", requiredClaims, requiredPaths, Collections.singletonList("name")))
+        .isFalse();
+
+    // A new snapshot with the same settings matches
+    config.invalidate();
+    assertThat(underTest.matches("issuer", config.snapshot().getRequiredClaims(),
+        config.snapshot().getRequiredClaimPaths(), null)).isTrue();
+  }
+
+  @Test
+  public void check_nested_claim_path() throws Exception {
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access.roles");
+    ClaimCoverage underTest = newClaimCoverage(null);
+    UserInfo claims = claims("preferred_username");
+    claims.setClaim("realm_access", Collections.singletonMap("other", "value"));
+    assertThat(underTest.isCoveredBy(claims)).isFalse();
+
+    claims.setClaim("realm_access", Collections.singletonMap("roles", Collections.singletonList("admins")));
+    assertThat(underTest.isCoveredBy(claims)).isTrue();
+  }
+
+  private ClaimCoverage newClaimCoverage(List<String> supportedClaims) {
+    return new ClaimCoverage("issuer", config.snapshot().getRequiredClaims(),
+        config.snapshot().getRequiredClaimPaths(), supportedClaims);
+  }
+
+  private static UserInfo claims(String... names) {
+    UserInfo userInfo = new UserInfo(new Subject("john"));
+    for (String name : names) {
+      userInfo.setClaim(name, "value");
+    }
+    return userInfo;
+  }
+
+  private static Set<String> setOf(String... values) {
+    return new LinkedHashSet<>(Arrays.asList(values));
+  }
+
+}
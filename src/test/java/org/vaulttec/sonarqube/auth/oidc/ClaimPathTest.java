@@ -0,0 +1,75 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+public class ClaimPathTest {
+
+  private static final String CLAIMS = "{\"sub\":\"john\",\"groups\":[\"admins\"],"
+      + "\"https://acme.com/roles\":[\"users\"],\"realm_access\":{\"roles\":[\"developers\",\"testers\"]},"
+      + "\"resource_access\":{\"my.client\":{\"roles\":[\"qa\"]},\"a/b~c\":\"escaped\"}}";
+
+  @Test
+  public void resolve_claim_name() throws ParseException {
+    UserInfo claims = UserInfo.parse(CLAIMS);
+    ClaimPath underTest = ClaimPath.compile("groups");
+    assertThat(underTest.getClaimNames()).containsExactly("groups");
+    assertThat(underTest.resolve(claims)).isEqualTo(claims.getClaim("groups"));
+    assertThat(ClaimPath.compile("https://acme.com/roles").resolve(claims))
+        .isEqualTo(claims.getClaim("https://acme.com/roles"));
+    assertThat(ClaimPath.compile("missing").resolve(claims)).isNull();
+  }
+
+  @Test
+  public void resolve_dotted_path() throws ParseException {
+    UserInfo claims = UserInfo.parse(CLAIMS);
+    ClaimPath underTest = ClaimPath.compile("realm_access.roles");
+    assertThat(underTest.getClaimNames()).containsExactly("realm_access.roles", "realm_access");
+    assertThat(underTest.resolve(claims)).asList().containsExactly("developers", "testers");
+    assertThat(ClaimPath.compile("realm_access.roles.1").resolve(claims)).isEqualTo("testers");
+    assertThat(ClaimPath.compile("realm_access.roles.2").resolve(claims)).isNull();
+    assertThat(ClaimPath.compile("realm_access.roles.x").resolve(claims)).isNull();
+    assertThat(ClaimPath.compile("groups.0.name").resolve(claims)).isNull();
+    assertThat(ClaimPath.compile("realm.").getClaimNames()).containsExactly("realm.");
+  }
+
+  @Test
+  public void resolve_json_pointer() throws ParseException {
+    UserInfo claims = UserInfo.parse(CLAIMS);
+    ClaimPath underTest = ClaimPath.compile("/resource_access/my.client/roles/0");
+    assertThat(underTest.getClaimNames()).containsExactly("resource_access");
+    assertThat(underTest.resolve(claims)).isEqualTo("qa");
+    assertThat(ClaimPath.compile("/resource_access/a~1b~0c").resolve(claims)).isEqualTo("escaped");
+    assertThat(ClaimPath.compile("/groups").resolve(claims)).isEqualTo(claims.getClaim("groups"));
+  }
+
+  @Test
+  public void invalid_path() {
+    assertThatThrownBy(() -> ClaimPath.compile("")).isInstanceOf(IllegalStateException.class)
+        .hasMessage("Invalid claim path: ''");
+    assertThatThrownBy(() -> ClaimPath.compile("/")).isInstanceOf(IllegalStateException.class);
+  }
+
+}
@@ -0,0 +1,92 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.net.URI;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+public class DistributedClaimSourceTest {
+
+  private static final URI ISSUER = URI.create("https://claims.acme.com");
+
+  @Test
+  public void find_sources_of_distributed_claims() throws ParseException {
+    UserInfo claims = UserInfo.parse("{\"sub\":\"john\","
+        + "\"_claim_names\":{\"groups\":\"src1\",\"roles\":\"src1\",\"email\":\"src2\",\"phone\":\"src3\"},"
+        + "\"_claim_sources\":{\"src1\":{\"endpoint\":\"https://claims.acme.com/user\",\"access_token\":\"token\"},"
+        + "\"src2\":{\"endpoint\":\"https://other.acme.com/user\"},\"src3\":{\"JWT\":\"aggregated\"}}}");
+    List<DistributedClaimSource> sources = DistributedClaimSource.find(claims,
+        Arrays.asList("groups", "roles", "email", "phone", "name"), ISSUER, Collections.singleton("other.acme.com"));
+    assertThat(sources).hasSize(2);
+    assertThat(sources.get(0).getName()).isEqualTo("src1");
+    assertThat(sources.get(0).getEndpoint()).isEqualTo(URI.create("https://claims.acme.com/user"));
+    assertThat(sources.get(0).getAccessToken()).isEqualTo("token");
+    assertThat(sources.get(0).getClaimNames()).containsExactly("groups", "roles");
+    assertThat(sources.get(0).isPaged()).isFalse();
+    assertThat(sources.get(1).getName()).isEqualTo("src2");
+    assertThat(sources.get(1).getAccessToken()).isNull();
+    assertThat(sources.get(1).getClaimNames()).containsExactly("email");
+
+    assertThat(DistributedClaimSource.find(claims, Arrays.asList("name"), ISSUER, Collections.emptySet())).isEmpty();
+    assertThat(DistributedClaimSource.find(UserInfo.parse("{\"sub\":\"john\"}"), Arrays.asList("groups"), ISSUER,
+        Collections.emptySet())).isEmpty();
+  }
+
+  @Test
+  public void replace_azure_ad_graph_endpoint() throws ParseException {
+    UserInfo claims = UserInfo.parse("{\"sub\":\"john\",\"_claim_names\":{\"groups\":\"src1\"},"
+        + "\"_claim_sources\":{\"src1\":{\"endpoint\":\"https://graph.windows.net/tenant-id/users/user-id/"
+        + "getMemberObjects\"}}}");
+    DistributedClaimSource source = DistributedClaimSource.find(claims, Arrays.asList("groups"), ISSUER,
+        Collections.emptySet()).get(0);
+    assertThat(source.getEndpoint()).isEqualTo(URI.create(
+        "https://graph.microsoft.com/v1.0/users/user-id/transitiveMemberOf?$select=id&$top=999"));
+    assertThat(source.isPaged()).isTrue();
+    assertThat(source.isSameOrigin(URI.create("https://graph.microsoft.com/v1.0/users/user-id/transitiveMemberOf"
+        + "?$skiptoken=abc"))).isTrue();
+    assertThat(source.isSameOrigin(URI.create("https://other.org/v1.0"))).isFalse();
+    assertThat(source.isSameOrigin(URI.create("http://graph.microsoft.com/v1.0"))).isFalse();
+  }
+
+  @Test
+  public void ignore_untrusted_sources() throws ParseException {
+    UserInfo claims = UserInfo.parse("{\"sub\":\"john\","
+        + "\"_claim_names\":{\"groups\":\"src1\",\"roles\":\"src2\",\"email\":\"src3\",\"phone\":\"src4\"},"
+        + "\"_claim_sources\":{\"src1\":{\"endpoint\":\"http://claims.acme.com/user\"},"
+        + "\"src2\":{\"endpoint\":\"https://evil.org/user\"},"
+        + "\"src3\":{\"endpoint\":\"https://claims.acme.com:8443/user\"},"
+        + "\"src4\":{\"endpoint\":\"https://CLAIMS.acme.com:443/user\"}}}");
+    List<DistributedClaimSource> sources = DistributedClaimSource.find(claims,
+        Arrays.asList("groups", "roles", "email", "phone"), ISSUER, Collections.emptySet());
+    assertThat(sources).extracting(DistributedClaimSource::getName).containsExactly("src4");
+
+    sources = DistributedClaimSource.find(claims, Arrays.asList("groups", "roles"), ISSUER,
+        Collections.singleton("evil.org"));
+    assertThat(sources).extracting(DistributedClaimSource::getName).containsExactly("src2");
+  }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.sonar.api.utils.internal.TestSystem2;
+
+public class ExpiringCacheTest {
+
+  private static final long NOW = 1_000_000;
+  private static final long TTL = 1000;
+
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private long ttl = TTL;
+  private final ExpiringCache<String> underTest = new ExpiringCache<>(2, () -> ttl, system2);
+
+  @Test
+  public void cache_within_ttl() {
+    underTest.put("john", "value");
+    system2.setNow(NOW + TTL - 1);
+    assertThat(underTest.get("john")).isEqualTo("value");
+    system2.setNow(NOW + TTL);
+    assertThat(underTest.get("john")).isNull();
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void apply_changed_ttl_to_cached_entries() {
+    underTest.put("john", "value");
+    ttl = TTL / 2;
+    system2.setNow(NOW + TTL / 2);
+    assertThat(underTest.get("john")).isNull();
+  }
+
+  @Test
+  public void evict_least_recently_used() {
+    underTest.put("john", "value");
+    underTest.put("jane", "value");
+    underTest.get("john");
+    underTest.put("jim", "value");
+    assertThat(underTest.get("jane")).isNull();
+    assertThat(underTest.get("john")).isNotNull();
+    assertThat(underTest.get("jim")).isNotNull();
+    assertThat(underTest.size()).isEqualTo(2);
+  }
+
+  @Test
+  public void disabled_cache() {
+    ttl = 0;
+    assertThat(underTest.isEnabled()).isFalse();
+    underTest.put("john", "value");
+    assertThat(underTest.size()).isZero();
+    assertThat(new ExpiringCache<String>(0, () -> TTL, system2).isEnabled()).isFalse();
+  }
+
+}
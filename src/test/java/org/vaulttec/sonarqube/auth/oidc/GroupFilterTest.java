@@ -0,0 +1,72 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.Test;
+
+public class GroupFilterTest {
+
+  private static final String[] NONE = new String[0];
+
+  @Test
+  public void accept_all_without_patterns() {
+    assertThat(GroupFilter.compile(NONE, NONE)).isSameAs(GroupFilter.ACCEPT_ALL);
+    assertThat(GroupFilter.ACCEPT_ALL.accept("any")).isTrue();
+  }
+
+  @Test
+  public void include_by_name_prefix_glob_and_regex() {
+    GroupFilter underTest = GroupFilter.compile(
+        new String[] { "admins", "prefix:CN=sonar", "glob:dev-*-team", "team-?", "regex:^qa-[0-9]+$" }, NONE);
+    assertThat(underTest.accept("admins")).isTrue();
+    assertThat(underTest.accept("admins2")).isFalse();
+    assertThat(underTest.accept("CN=sonar-users,OU=Groups")).isTrue();
+    assertThat(underTest.accept("CN=other")).isFalse();
+    assertThat(underTest.accept("dev-java-team")).isTrue();
+    assertThat(underTest.accept("dev-java")).isFalse();
+    assertThat(underTest.accept("team-a")).isTrue();
+    assertThat(underTest.accept("team-ab")).isFalse();
+    assertThat(underTest.accept("qa-42")).isTrue();
+    assertThat(underTest.accept("qa-x")).isFalse();
+  }
+
+  @Test
+  public void glob_quotes_regex_characters() {
+    GroupFilter underTest = GroupFilter.compile(new String[] { "a.b*" }, NONE);
+    assertThat(underTest.accept("a.bc")).isTrue();
+    assertThat(underTest.accept("axbc")).isFalse();
+  }
+
+  @Test
+  public void exclude_wins_over_include() {
+    GroupFilter underTest = GroupFilter.compile(new String[] { "sonar-*" }, new String[] { "sonar-legacy*" });
+    assertThat(underTest.accept("sonar-users")).isTrue();
+    assertThat(underTest.accept("sonar-legacy-users")).isFalse();
+    assertThat(GroupFilter.compile(NONE, new String[] { "prefix:S-1-5" }).accept("S-1-5-21")).isFalse();
+  }
+
+  @Test
+  public void invalid_regex() {
+    assertThatThrownBy(() -> GroupFilter.compile(new String[] { "regex:[a-" }, NONE))
+        .isInstanceOf(IllegalStateException.class).hasMessageStartingWith("Invalid group filter pattern");
+  }
+
+}
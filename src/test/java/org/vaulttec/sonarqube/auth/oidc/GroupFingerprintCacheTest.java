@@ -0,0 +1,78 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+import org.sonar.api.utils.internal.TestSystem2;
+
+public class GroupFingerprintCacheTest {
+
+  private static final long NOW = 1_000_000;
+  private static final long MAX_AGE = 1000;
+  private static final List<String> GROUPS = Arrays.asList("admins", "users");
+
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private long maxAge = MAX_AGE;
+  private final GroupFingerprintCache underTest = new GroupFingerprintCache(2, () -> maxAge, system2);
+
+  @Test
+  public void unchanged_within_max_age() {
+    underTest.put("john", GROUPS);
+    system2.setNow(NOW + MAX_AGE - 1);
+    assertThat(underTest.isUnchanged("john", Arrays.asList("users", "admins"))).isTrue();
+    assertThat(underTest.isUnchanged("john", Collections.singletonList("users"))).isFalse();
+    assertThat(underTest.isUnchanged("jane", GROUPS)).isFalse();
+    system2.setNow(NOW + MAX_AGE);
+    assertThat(underTest.isUnchanged("john", GROUPS)).isFalse();
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void evict_least_recently_used() {
+    underTest.put("john", GROUPS);
+    underTest.put("jane", GROUPS);
+    underTest.isUnchanged("john", GROUPS);
+    underTest.put("jim", GROUPS);
+    assertThat(underTest.isUnchanged("jane", GROUPS)).isFalse();
+    assertThat(underTest.isUnchanged("john", GROUPS)).isTrue();
+    assertThat(underTest.isUnchanged("jim", GROUPS)).isTrue();
+  }
+
+  @Test
+  public void disabled_cache() {
+    maxAge = 0;
+    underTest.put("john", GROUPS);
+    assertThat(underTest.isUnchanged("john", GROUPS)).isFalse();
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void fingerprint() {
+    assertThat(GroupFingerprintCache.fingerprint(GROUPS)).hasSize(16)
+        .isEqualTo(GroupFingerprintCache.fingerprint(Arrays.asList("users", "admins")));
+    assertThat(GroupFingerprintCache.fingerprint(Arrays.asList("ab", "c")))
+        .isNotEqualTo(GroupFingerprintCache.fingerprint(Arrays.asList("a", "bc")));
+  }
+
+}
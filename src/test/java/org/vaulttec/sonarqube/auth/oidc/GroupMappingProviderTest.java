@@ -0,0 +1,149 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.internal.TestSystem2;
+
+public class GroupMappingProviderTest {
+
+  private static final long NOW = 1_000_000;
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private final MapSettings settings = new MapSettings(new PropertyDefinitions(OidcConfiguration.definitions()));
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private final OidcConfiguration config = new OidcConfiguration(settings.asConfig());
+  private final GroupMappingProvider underTest = new GroupMappingProvider(config, system2);
+  private File file;
+
+  @Before
+  public void setUp() throws IOException {
+    file = temp.newFile("groups.map");
+  }
+
+  @Test
+  public void identity_without_mappings() {
+    assertThat(underTest.get()).isSameAs(GroupMapping.IDENTITY);
+  }
+
+  @Test
+  public void recompile_after_configuration_change() {
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "a=b");
+    GroupMapping mapping = underTest.get();
+    assertThat(map(mapping, "a")).containsExactly("b");
+    assertThat(underTest.get()).isSameAs(mapping);
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "a=c");
+    config.invalidate();
+    assertThat(map(underTest.get(), "a")).containsExactly("c");
+  }
+
+  @Test
+  public void combine_configuration_and_file() throws IOException {
+    write("# comment", "CN=a,OU=Groups=b");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "x=y");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, file.getAbsolutePath());
+    GroupMapping mapping = underTest.get();
+    assertThat(mapping.size()).isEqualTo(2);
+    assertThat(map(mapping, "x")).containsExactly("y");
+    assertThat(map(mapping, "CN=a,OU=Groups")).containsExactly("b");
+  }
+
+  @Test
+  public void reload_modified_file_after_check_interval() throws IOException {
+    write("a=b");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, file.getAbsolutePath());
+    GroupMapping mapping = underTest.get();
+
+    write("a=c", "d=e");
+    assertThat(underTest.get()).isSameAs(mapping);
+
+    system2.setNow(NOW + GroupMappingProvider.FILE_CHECK_INTERVAL);
+    assertThat(map(underTest.get(), "a")).containsExactly("c");
+  }
+
+  @Test
+  public void keep_unmodified_file() throws IOException {
+    write("a=b");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, file.getAbsolutePath());
+    GroupMapping mapping = underTest.get();
+
+    system2.setNow(NOW + GroupMappingProvider.FILE_CHECK_INTERVAL);
+    assertThat(underTest.get()).isSameAs(mapping);
+  }
+
+  @Test
+  public void keep_previous_mapping_if_reload_fails() throws IOException {
+    write("a=b");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, file.getAbsolutePath());
+    GroupMapping mapping = underTest.get();
+
+    write("a=b", "invalid");
+    system2.setNow(NOW + GroupMappingProvider.FILE_CHECK_INTERVAL);
+    assertThat(underTest.get()).isSameAs(mapping);
+
+    // The file isn't checked again before the next interval
+    write("a=c");
+    assertThat(underTest.get()).isSameAs(mapping);
+  }
+
+  @Test
+  public void fail_without_previous_mapping() {
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, new File(temp.getRoot(), "missing").getPath());
+    assertThatThrownBy(underTest::get).isInstanceOf(IllegalStateException.class)
+        .hasMessageStartingWith("Reading group mapping file");
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, file.getAbsolutePath());
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "invalid");
+    config.invalidate();
+    assertThatThrownBy(underTest::get).isInstanceOf(IllegalStateException.class)
+        .hasMessage("Invalid group mapping in configuration, line 1: 'invalid'");
+  }
+
+  private void write(String... lines) throws IOException {
+    long lastModified = file.lastModified();
+    Files.write(file.toPath(), Arrays.asList(lines), StandardCharsets.UTF_8);
+    // Make sure the modification is detected on file systems with a coarse timestamp resolution
+    file.setLastModified(lastModified + 2000);
+  }
+
+  private static List<String> map(GroupMapping mapping, String group) {
+    List<String> groups = new ArrayList<>();
+    mapping.map(group, groups);
+    return groups;
+  }
+
+}
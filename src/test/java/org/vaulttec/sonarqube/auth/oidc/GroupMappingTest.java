@@ -0,0 +1,74 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+public class GroupMappingTest {
+
+  @Test
+  public void identity_without_mappings() {
+    assertThat(GroupMapping.compile(Arrays.asList("", "# comment"))).isSameAs(GroupMapping.IDENTITY);
+    assertThat(map(GroupMapping.IDENTITY, "admins")).containsExactly("admins");
+  }
+
+  @Test
+  public void map_by_name() {
+    GroupMapping underTest = GroupMapping.compile(Arrays.asList("admins=sonar-administrators",
+        " CN=dev,OU=Groups,DC=acme = developers ", "CN=dev,OU=Groups,DC=acme=sonar-users"));
+    assertThat(underTest.size()).isEqualTo(2);
+    assertThat(map(underTest, "admins")).containsExactly("sonar-administrators");
+    assertThat(map(underTest, "CN=dev,OU=Groups,DC=acme")).containsExactly("developers", "sonar-users");
+    assertThat(map(underTest, "other")).containsExactly("other");
+  }
+
+  @Test
+  public void map_by_rewrite_rule() {
+    GroupMapping underTest = GroupMapping.compile(Arrays.asList("regex:CN=([^,]+),.*=$1", "regex:.*=never",
+        "CN=admins,OU=Groups=sonar-administrators"));
+    assertThat(map(underTest, "CN=admins,OU=Groups")).containsExactly("sonar-administrators");
+    assertThat(map(underTest, "CN=qa,OU=Groups")).containsExactly("qa");
+    assertThat(map(underTest, "qa")).containsExactly("never");
+  }
+
+  @Test
+  public void invalid_mapping() {
+    assertThatThrownBy(() -> GroupMapping.compile(Arrays.asList("# comment", "admins")))
+        .isInstanceOf(IllegalStateException.class)
+        .hasMessage("Invalid group mapping in configuration, line 2: 'admins'");
+    assertThatThrownBy(() -> GroupMapping.compile(Collections.singletonList("admins=")))
+        .isInstanceOf(IllegalStateException.class).hasMessageStartingWith("Invalid group mapping");
+    assertThatThrownBy(() -> GroupMapping.builder().add("file 'x'", Collections.singletonList("regex:[a-=b")))
+        .isInstanceOf(IllegalStateException.class).hasMessageStartingWith("Invalid group mapping in file 'x', line 1");
+  }
+
+  private static List<String> map(GroupMapping mapping, String group) {
+    List<String> groups = new ArrayList<>();
+    mapping.map(group, groups);
+    return groups;
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.URL;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.oauth2.sdk.http.HTTPRequestConfigurator;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+public class HttpResourceTest {
+
+  @Rule
+  public MockWebServer server = new MockWebServer();
+
+  private final PooledHttpTransport transport = new PooledHttpTransport(4, 2, 60, 0, false);
+  private final HTTPRequestConfigurator configurator = request -> request.setReadTimeout(1000);
+
+  @After
+  public void close() throws IOException {
+    transport.close();
+  }
+
+  @Test
+  public void fetch_and_revalidate() throws Exception {
+    URL url = server.url("/certs").url();
+    server.enqueue(new MockResponse().setBody("content").setHeader("ETag", "\"v1\"")
+        .setHeader("Last-Modified", "Wed, 21 Oct 2015 07:28:00 GMT").setHeader("Cache-Control", "public, max-age=600"));
+    server.enqueue(new MockResponse().setResponseCode(304).setHeader("Cache-Control", "max-age=300"));
+
+    HttpResource<String> resource = HttpResource.fetch(transport, configurator, url, null,
+        response -> response.getContent().trim());
+    assertThat(resource.getValue()).isEqualTo("content");
+    assertThat(resource.getETag()).isEqualTo("\"v1\"");
+    assertThat(resource.getLastModified()).isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+    assertThat(resource.getMaxAge()).isEqualTo(600);
+    RecordedRequest request = server.takeRequest();
+    assertThat(request.getHeader("If-None-Match")).isNull();
+
+    HttpResource<String> revalidated = HttpResource.fetch(transport, configurator, url, resource, response -> {
+      throw new ParseException("must not be parsed");
+    });
+    assertThat(revalidated.getValue()).isSameAs(resource.getValue());
+    assertThat(revalidated.getETag()).isEqualTo("\"v1\"");
+    assertThat(revalidated.getMaxAge()).isEqualTo(300);
+    request = server.takeRequest();
+    assertThat(request.getHeader("If-None-Match")).isEqualTo("\"v1\"");
+    assertThat(request.getHeader("If-Modified-Since")).isEqualTo("Wed, 21 Oct 2015 07:28:00 GMT");
+  }
+
+  @Test
+  public void fetch_modified() throws Exception {
+    URL url = server.url("/certs").url();
+    server.enqueue(new MockResponse().setBody("content").setHeader("ETag", "\"v1\""));
+    server.enqueue(new MockResponse().setBody("new content").setHeader("ETag", "\"v2\""));
+
+    HttpResource<String> resource = HttpResource.fetch(transport, configurator, url, null,
+        response -> response.getContent().trim());
+    HttpResource<String> modified = HttpResource.fetch(transport, configurator, url, resource,
+        response -> response.getContent().trim());
+    assertThat(modified.getValue()).isEqualTo("new content");
+    assertThat(modified.getETag()).isEqualTo("\"v2\"");
+    assertThat(modified.getMaxAge()).isNull();
+  }
+
+  @Test
+  public void fetch_fails_on_error_status() {
+    server.enqueue(new MockResponse().setResponseCode(500));
+    assertThatThrownBy(() -> HttpResource.fetch(transport, configurator, server.url("/certs").url(), null,
+        response -> response.getContent().trim()))
+        .isInstanceOf(ParseException.class);
+  }
+
+  @Test
+  public void parse_max_age() {
+    assertThat(HttpResource.parseMaxAge(null)).isNull();
+    assertThat(HttpResource.parseMaxAge("public")).isNull();
+    assertThat(HttpResource.parseMaxAge("public, max-age=3600")).isEqualTo(3600);
+    assertThat(HttpResource.parseMaxAge("Max-Age=\"60\"")).isEqualTo(60);
+    assertThat(HttpResource.parseMaxAge("max-age=abc")).isNull();
+    assertThat(HttpResource.parseMaxAge("no-cache")).isZero();
+    assertThat(HttpResource.parseMaxAge("private, no-store")).isZero();
+  }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.jwk.source.ImmutableJWKSet;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+import com.nimbusds.openid.connect.sdk.validators.IDTokenValidator;
+
+import org.sonar.api.utils.System2;
+import org.sonar.api.utils.log.Logger;
+import org.sonar.api.utils.log.Loggers;
+
+/**
+ * Compares the throughput of ID token validation with a per-login Nimbus <code>IDTokenValidator</code> (key selection
+ * and verifier creation for every token) and with a single {@link IdTokenVerifier} using precomputed verifiers. Not
+ * part of the test suite (surefire only runs <code>*Test</code> classes) - run manually via
+ * <code>mvn test-compile exec:java -Dexec.classpathScope=test
+ * -Dexec.mainClass=org.vaulttec.sonarqube.auth.oidc.IdTokenVerifierBenchmark</code>.
+ */
+public class IdTokenVerifierBenchmark {
+
+  private static final Logger LOGGER = Loggers.get(IdTokenVerifierBenchmark.class);
+  private static final Issuer ISSUER = new Issuer("https://oidc.org");
+  private static final ClientID CLIENT_ID = new ClientID("id");
+  private static final int ITERATIONS = 20_000;
+
+  public static void main(String[] args) throws Exception {
+    RSAKey key = new RSAKeyGenerator(2048).keyID("1").generate();
+    JWKSet jwkSet = new JWKSet(key.toPublicJWK());
+    SignedJWT idToken = IdTokenVerifierTest.createIdToken(key, ISSUER.getValue(), "1");
+    ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(
+        OidcClient.daemonThreadFactory("benchmark"));
+    JwkSetKeySource keySource = new JwkSetKeySource("https://oidc.org/certs", new ResourceCache<>("JWK set",
+        (uri, previous, deadline) -> HttpResource.of(jwkSet), () -> 3_600_000, () -> 0, executor,
+        System2.INSTANCE),
+        System2.INSTANCE);
+    IdTokenVerifier verifier = new IdTokenVerifier(ISSUER, CLIENT_ID, JWSAlgorithm.RS256,
+        (keyId, deadline) -> keySource.getVerifiers(JWSAlgorithm.RS256, keyId, null));
+
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        IDTokenValidator validator = new IDTokenValidator(ISSUER, CLIENT_ID,
+            new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, new ImmutableJWKSet<SecurityContext>(jwkSet)), null);
+        validator.validate(SignedJWT.parse(idToken.serialize()), null);
+      }
+      report("IDTokenValidator per login", start);
+
+      start = System.nanoTime();
+      for (int i = 0; i < ITERATIONS; i++) {
+        verifier.validate(SignedJWT.parse(idToken.serialize()), null);
+      }
+      report("IdTokenVerifier with precomputed verifiers", start);
+    }
+    executor.shutdownNow();
+  }
+
+  private static void report(String name, long start) {
+    long nanos = System.nanoTime() - start;
+    LOGGER.info("{}: {} validations/s", name, String.format("%,.0f", ITERATIONS / (nanos / 1e9)));
+  }
+
+}
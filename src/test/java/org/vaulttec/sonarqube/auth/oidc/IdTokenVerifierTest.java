@@ -0,0 +1,171 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JOSEObjectType;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jose.crypto.MACVerifier;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.proc.BadJOSEException;
+import com.nimbusds.jose.proc.BadJWSException;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import com.nimbusds.jwt.proc.BadJWTException;
+import com.nimbusds.oauth2.sdk.id.ClientID;
+import com.nimbusds.oauth2.sdk.id.Issuer;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class IdTokenVerifierTest {
+
+  private static final Issuer ISSUER = new Issuer("https://oidc.org");
+  private static final ClientID CLIENT_ID = new ClientID("id");
+
+  private static RSAKey key;
+  private static RSAKey otherKey;
+
+  @BeforeClass
+  public static void init() throws JOSEException {
+    key = new RSAKeyGenerator(2048).keyID("1").generate();
+    otherKey = new RSAKeyGenerator(2048).keyID("1").generate();
+  }
+
+  @Test
+  public void valid_id_token() throws Exception {
+    createVerifier(key).validate(createIdToken(key, ISSUER.getValue(), "1"), null);
+  }
+
+  @Test
+  public void plain_id_token() {
+    PlainJWT idToken = new PlainJWT(claims(ISSUER.getValue()));
+    assertThatThrownBy(() -> createVerifier(key).validate(idToken, null)).isInstanceOf(BadJOSEException.class)
+        .hasMessage("Signed ID token expected");
+  }
+
+  @Test
+  public void unexpected_algorithm() throws Exception {
+    SignedJWT idToken = createIdToken(key, ISSUER.getValue(), "1");
+    IdTokenVerifier verifier = new IdTokenVerifier(ISSUER, CLIENT_ID, JWSAlgorithm.ES256,
+        (keyId, deadline) -> verifiers(key));
+    assertThatThrownBy(() -> verifier.validate(idToken, null)).isInstanceOf(BadJOSEException.class)
+        .hasMessageContaining("Unexpected JWS algorithm RS256");
+  }
+
+  @Test
+  public void unknown_key() throws Exception {
+    SignedJWT idToken = createIdToken(key, ISSUER.getValue(), "1");
+    IdTokenVerifier verifier = new IdTokenVerifier(ISSUER, CLIENT_ID, JWSAlgorithm.RS256,
+        (keyId, deadline) -> Collections.emptyList());
+    assertThatThrownBy(() -> verifier.validate(idToken, null)).isInstanceOf(BadJOSEException.class)
+        .hasMessageContaining("No matching key(s) found");
+  }
+
+  @Test
+  public void invalid_signature() throws Exception {
+    SignedJWT idToken = createIdToken(otherKey, ISSUER.getValue(), "1");
+    assertThatThrownBy(() -> createVerifier(key).validate(idToken, null)).isInstanceOf(BadJWSException.class)
+        .hasMessageContaining("Invalid signature");
+  }
+
+  @Test
+  public void invalid_issuer() throws Exception {
+    SignedJWT idToken = createIdToken(key, "https://other.org", "1");
+    assertThatThrownBy(() -> createVerifier(key).validate(idToken, null)).isInstanceOf(BadJWTException.class);
+  }
+
+  @Test
+  public void valid_access_token() throws Exception {
+    SignedJWT accessToken = new SignedJWT(
+        new JWSHeader.Builder(JWSAlgorithm.RS256).type(new JOSEObjectType("at+jwt")).keyID("1").build(),
+        new JWTClaimsSet.Builder(claims(ISSUER.getValue())).audience("api").build());
+    accessToken.sign(new RSASSASigner(key));
+    createVerifier(key).validateAccessToken(accessToken, null);
+  }
+
+  @Test
+  public void invalid_access_token() throws Exception {
+    assertThatThrownBy(() -> createVerifier(key).validateAccessToken(createIdToken(otherKey, ISSUER.getValue(), "1"),
+        null))
+        .isInstanceOf(BadJWSException.class).hasMessage("Signed access token rejected: Invalid signature");
+    SignedJWT expired = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID("1").build(),
+        new JWTClaimsSet.Builder().issuer(ISSUER.getValue()).subject("john").expirationTime(new Date(0)).build());
+    expired.sign(new RSASSASigner(key));
+    assertThatThrownBy(() -> createVerifier(key).validateAccessToken(expired, null))
+        .isInstanceOf(BadJWTException.class);
+    assertThatThrownBy(() -> createVerifier(key).validateAccessToken(createIdToken(key, "https://other.org", "1"),
+        null))
+        .isInstanceOf(BadJWTException.class);
+  }
+
+  @Test
+  public void reject_access_token_with_symmetric_algorithm() throws Exception {
+    byte[] secret = "01234567890123456789012345678901".getBytes(StandardCharsets.UTF_8);
+    SignedJWT accessToken = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.HS256).build(),
+        claims(ISSUER.getValue()));
+    accessToken.sign(new MACSigner(secret));
+    List<JWSVerifier> verifiers = Collections.singletonList(new MACVerifier(secret));
+    IdTokenVerifier underTest = new IdTokenVerifier(ISSUER, CLIENT_ID, JWSAlgorithm.HS256,
+        (keyId, deadline) -> verifiers);
+
+    underTest.validate(accessToken, null);
+    assertThatThrownBy(() -> underTest.validateAccessToken(accessToken, null)).isInstanceOf(BadJOSEException.class)
+        .hasMessage("Signed access token rejected: Access tokens can't be verified with HS256");
+  }
+
+  private static IdTokenVerifier createVerifier(RSAKey key) throws JOSEException {
+    List<JWSVerifier> verifiers = verifiers(key);
+    return new IdTokenVerifier(ISSUER, CLIENT_ID, JWSAlgorithm.RS256, (keyId, deadline) -> verifiers);
+  }
+
+  private static List<JWSVerifier> verifiers(RSAKey key) {
+    try {
+      return Collections.singletonList(new RSASSAVerifier(key.toPublicJWK()));
+    } catch (JOSEException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  static SignedJWT createIdToken(RSAKey key, String issuer, String keyId) throws JOSEException {
+    SignedJWT idToken = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(keyId).build(), claims(issuer));
+    idToken.sign(new RSASSASigner(key));
+    return idToken;
+  }
+
+  private static JWTClaimsSet claims(String issuer) {
+    Date now = new Date();
+    return new JWTClaimsSet.Builder().issuer(issuer).subject("john").audience(CLIENT_ID.getValue()).issueTime(now)
+        .expirationTime(new Date(now.getTime() + 60_000)).build();
+  }
+
+}
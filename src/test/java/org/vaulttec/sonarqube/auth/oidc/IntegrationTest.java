@@ -34,6 +34,8 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
 
 import org.junit.Before;
 import org.junit.Rule;
@@ -157,6 +159,19 @@ public class IntegrationTest extends AbstractOidcTest {
     assertThat(accessTokenRequest.getPath()).startsWith("/protocol/openid-connect/token");
   }
 
+  @Test
+  public void warm_up_retrieves_and_caches_jwk_set() throws Exception {
+    JWKSet jwkSet = new JWKSet(new RSAKeyGenerator(2048).keyID("1").generate().toPublicJWK());
+    idp.enqueue(new MockResponse().setHeader("content-type", "application/json").setBody(jwkSet.toString()));
+
+    oidcClient.warmUp();
+    oidcClient.warmUp();
+
+    assertThat(oidcClient.getJwkSet(getProviderMetadata(idpUri).getJWKSetURI(), null).getKeyByKeyId("1")).isNotNull();
+    assertThat(idp.getRequestCount()).isEqualTo(1);
+    assertThat(idp.takeRequest().getPath()).isEqualTo("/protocol/openid-connect/certs");
+  }
+
   @Test
   public void callback_throws_ISE_if_error_when_requesting_id_token() throws InterruptedException {
     idp.enqueue(new MockResponse().addHeader("Content-Type", ContentType.APPLICATION_JSON).setResponseCode(500)
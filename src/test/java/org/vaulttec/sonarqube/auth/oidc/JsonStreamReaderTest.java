@@ -0,0 +1,72 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+
+import org.junit.Test;
+
+import net.minidev.json.JSONArray;
+import net.minidev.json.JSONObject;
+
+public class JsonStreamReaderTest {
+
+  @Test
+  public void read_all_members() throws Exception {
+    JSONObject object = JsonStreamReader.readObject(stream("{\"string\":\"value\",\"int\":42,\"long\":1515796167597,"
+        + "\"double\":1.5,\"bool\":true,\"null\":null,\"array\":[\"a\",{\"b\":false}],\"object\":{\"c\":[]}}"), null);
+    assertThat(object).containsEntry("string", "value").containsEntry("int", 42)
+        .containsEntry("long", 1515796167597L).containsEntry("double", 1.5).containsEntry("bool", true)
+        .containsEntry("null", null);
+    assertThat((JSONArray) object.get("array")).hasSize(2);
+    assertThat(((JSONObject) ((JSONArray) object.get("array")).get(1))).containsEntry("b", false);
+    assertThat(((JSONObject) object.get("object")).get("c")).isInstanceOf(JSONArray.class);
+  }
+
+  @Test
+  public void skip_other_members() throws Exception {
+    JSONObject object = JsonStreamReader.readObject(stream("{\"sub\":\"john\",\"huge\":{\"nested\":[[1],[2],{}]},"
+        + "\"groups\":[\"admins\",\"users\"],\"other\":\"value\"}"), new HashSet<>(Arrays.asList("sub", "groups")));
+    assertThat(object).containsOnlyKeys("sub", "groups");
+    assertThat((JSONArray) object.get("groups")).containsExactly("admins", "users");
+  }
+
+  @Test
+  public void reject_invalid_json() {
+    assertThatThrownBy(() -> JsonStreamReader.readObject(stream("[\"no object\"]"), null))
+        .isInstanceOf(ParseException.class).hasMessage("Invalid JSON: Object expected");
+    assertThatThrownBy(() -> JsonStreamReader.readObject(stream("{\"truncated\":[\"a\""), null))
+        .isInstanceOf(ParseException.class);
+    assertThatThrownBy(() -> JsonStreamReader.readObject(stream("{\"invalid\" 42}"), null))
+        .isInstanceOf(ParseException.class);
+  }
+
+  private static InputStream stream(String json) {
+    return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+  }
+
+}
@@ -0,0 +1,144 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.security.interfaces.RSAPublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.ECDSAVerifier;
+import com.nimbusds.jose.crypto.RSASSAVerifier;
+import com.nimbusds.jose.jwk.Curve;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.ECKeyGenerator;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.utils.internal.TestSystem2;
+
+public class JwkSetKeySourceTest {
+
+  private static final String JWK_SET_URI = "https://oidc.org/certs";
+  private static final long NOW = 1_000_000;
+
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private final List<JWKSet> jwkSets = new ArrayList<>();
+  private int loads = 0;
+  private final ResourceCache<JWKSet> jwkSetCache = new ResourceCache<>("JWK set", (key, previous, deadline) -> {
+    return HttpResource.of(jwkSets.get(Math.min(loads++, jwkSets.size() - 1)));
+  }, () -> 3_600_000, () -> 0, mock(ScheduledExecutorService.class), system2);
+
+  private RSAKey key1;
+  private RSAKey key2;
+  private JwkSetKeySource underTest;
+
+  @Before
+  public void init() throws JOSEException {
+    key1 = new RSAKeyGenerator(2048).keyID("1").generate().toPublicJWK();
+    key2 = new RSAKeyGenerator(2048).keyID("2").generate().toPublicJWK();
+    underTest = new JwkSetKeySource(JWK_SET_URI, jwkSetCache, system2);
+  }
+
+  @Test
+  public void select_verifier_by_key_id() throws JOSEException {
+    jwkSets.add(new JWKSet(asList(key1, key2)));
+    assertThat(publicKeys(underTest.getVerifiers(JWSAlgorithm.RS256, "2", null)))
+        .containsExactly(key2.toRSAPublicKey());
+    assertThat(publicKeys(underTest.getVerifiers(JWSAlgorithm.RS256, "1", null)))
+        .containsExactly(key1.toRSAPublicKey());
+    assertThat(loads).isEqualTo(1);
+  }
+
+  @Test
+  public void select_verifiers_without_key_id() throws JOSEException {
+    jwkSets.add(new JWKSet(asList(key1, key2)));
+    assertThat(publicKeys(underTest.getVerifiers(JWSAlgorithm.RS256, null, null)))
+        .containsExactly(key1.toRSAPublicKey(), key2.toRSAPublicKey());
+  }
+
+  @Test
+  public void reuse_verifiers_of_unchanged_jwk_set() {
+    jwkSets.add(new JWKSet(asList(key1, key2)));
+    List<JWSVerifier> verifiers = underTest.getVerifiers(JWSAlgorithm.RS256, "1", null);
+    assertThat(underTest.getVerifiers(JWSAlgorithm.RS256, "1", null).get(0)).isSameAs(verifiers.get(0));
+  }
+
+  @Test
+  public void select_verifiers_by_algorithm() throws JOSEException {
+    ECKey ecKey = new ECKeyGenerator(Curve.P_256).keyID("3").generate().toPublicJWK();
+    RSAKey encryptionKey = new RSAKeyGenerator(2048).keyID("4").keyUse(KeyUse.ENCRYPTION).generate().toPublicJWK();
+    jwkSets.add(new JWKSet(asList(key1, ecKey, encryptionKey)));
+    List<JWSVerifier> verifiers = underTest.getVerifiers(JWSAlgorithm.ES256, "3", null);
+    assertThat(verifiers).hasSize(1);
+    assertThat(((ECDSAVerifier) verifiers.get(0)).getPublicKey()).isEqualTo(ecKey.toECPublicKey());
+    assertThat(underTest.getVerifiers(JWSAlgorithm.ES256, null, null)).hasSize(1);
+    assertThat(underTest.getVerifiers(JWSAlgorithm.RS256, null, null)).hasSize(1);
+    assertThat(underTest.getVerifiers(JWSAlgorithm.PS256, null, null)).isEmpty();
+  }
+
+  @Test
+  public void reload_on_unknown_key_id() throws JOSEException {
+    jwkSets.add(new JWKSet(key1));
+    jwkSets.add(new JWKSet(asList(key1, key2)));
+    assertThat(publicKeys(underTest.getVerifiers(JWSAlgorithm.RS256, "1", null)))
+        .containsExactly(key1.toRSAPublicKey());
+    assertThat(publicKeys(underTest.getVerifiers(JWSAlgorithm.RS256, "2", null)))
+        .containsExactly(key2.toRSAPublicKey());
+    assertThat(loads).isEqualTo(2);
+  }
+
+  @Test
+  public void limit_reloads_for_unknown_key_ids() {
+    jwkSets.add(new JWKSet(key1));
+    assertThat(underTest.getVerifiers(JWSAlgorithm.RS256, "forged1", null)).isEmpty();
+    assertThat(underTest.getVerifiers(JWSAlgorithm.RS256, "forged2", null)).isEmpty();
+    assertThat(loads).isEqualTo(2);
+
+    system2.setNow(NOW + JwkSetKeySource.MIN_RELOAD_INTERVAL);
+    assertThat(underTest.getVerifiers(JWSAlgorithm.RS256, "forged3", null)).isEmpty();
+    assertThat(loads).isEqualTo(3);
+  }
+
+  private static List<RSAPublicKey> publicKeys(List<JWSVerifier> verifiers) {
+    List<RSAPublicKey> keys = new ArrayList<>();
+    for (JWSVerifier verifier : verifiers) {
+      keys.add(((RSASSAVerifier) verifier).getPublicKey());
+    }
+    return keys;
+  }
+
+  private static List<JWK> asList(JWK... keys) {
+    List<JWK> list = new ArrayList<>();
+    Collections.addAll(list, keys);
+    return list;
+  }
+
+}
@@ -0,0 +1,204 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.sonar.api.config.PropertyDefinitions;
+import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.internal.TestSystem2;
+
+import com.nimbusds.oauth2.sdk.ParseException;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+import com.unboundid.ldap.listener.InMemoryDirectoryServer;
+import com.unboundid.ldap.listener.InMemoryDirectoryServerConfig;
+
+public class LdapGroupEnricherTest {
+
+  private static final long NOW = 1_000_000;
+  private static final String BASE_DN = "dc=acme,dc=com";
+
+  private final MapSettings settings = new MapSettings(new PropertyDefinitions(OidcConfiguration.definitions()));
+  private final OidcConfiguration config = new OidcConfiguration(settings.asConfig());
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private InMemoryDirectoryServer server;
+  private LdapGroupEnricher underTest;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryDirectoryServerConfig serverConfig = new InMemoryDirectoryServerConfig(BASE_DN);
+    serverConfig.addAdditionalBindCredentials("cn=admin", "secret");
+    serverConfig.setSchema(null);
+    server = new InMemoryDirectoryServer(serverConfig);
+    server.add("dn: " + BASE_DN, "objectClass: domain", "dc: acme");
+    server.add("dn: ou=groups," + BASE_DN, "objectClass: organizationalUnit", "ou: groups");
+    addGroup("developers", "john", "jane");
+    addGroup("admins", "john");
+    addGroup("testers", "jane");
+    server.startListening();
+
+    settings.setProperty(OidcConfiguration.LDAP_URL, "ldap://localhost:" + server.getListenPort());
+    settings.setProperty(OidcConfiguration.LDAP_BIND_DN, "cn=admin");
+    settings.setProperty(OidcConfiguration.LDAP_BIND_PASSWORD, "secret");
+    settings.setProperty(OidcConfiguration.LDAP_GROUP_SEARCH_BASE, "ou=groups," + BASE_DN);
+    underTest = new LdapGroupEnricher(config, system2);
+  }
+
+  @After
+  public void tearDown() {
+    underTest.close();
+    server.shutDown(true);
+  }
+
+  @Test
+  public void disabled_without_url() {
+    assertThat(underTest.isEnabled()).isTrue();
+    settings.removeProperty(OidcConfiguration.LDAP_URL);
+    config.invalidate();
+    assertThat(underTest.isEnabled()).isFalse();
+  }
+
+  @Test
+  public void search_groups() {
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none()))
+        .containsExactlyInAnyOrder("developers", "admins");
+    assertThat(underTest.getGroups("sub-jim", "jim", null, Deadline.none())).isEmpty();
+
+    settings.setProperty(OidcConfiguration.LDAP_GROUP_SEARCH_FILTER, "(&(cn=dev*)(memberUid={2}))");
+    settings.setProperty(OidcConfiguration.LDAP_GROUP_NAME_ATTRIBUTE, "dn");
+    config.invalidate();
+    assertThat(underTest.getGroups("sub-jane", "jdoe", "jane", Deadline.none()))
+        .containsExactly("cn=developers,ou=groups,dc=acme,dc=com");
+  }
+
+  @Test
+  public void search_groups_in_pages() throws Exception {
+    for (int i = 0; i < LdapGroupEnricher.PAGE_SIZE + 10; i++) {
+      addGroup("group-" + i, "jim");
+    }
+    assertThat(underTest.getGroups("sub-jim", "jim", null, Deadline.none()))
+        .hasSize(LdapGroupEnricher.PAGE_SIZE + 10);
+  }
+
+  @Test
+  public void cache_groups_within_ttl() throws Exception {
+    settings.setProperty(OidcConfiguration.LDAP_CACHE_TTL, 60);
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).hasSize(2);
+    server.delete("cn=admins,ou=groups," + BASE_DN);
+    system2.setNow(NOW + 59_999);
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).hasSize(2);
+    system2.setNow(NOW + 60_000);
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).containsExactly("developers");
+    assertThat(underTest.cacheSize()).isEqualTo(1);
+
+    settings.setProperty(OidcConfiguration.LDAP_CACHE_TTL, 0);
+    config.invalidate();
+    underTest.getGroups("sub-jane", "jane", null, Deadline.none());
+    assertThat(underTest.cacheSize()).isEqualTo(1);
+  }
+
+  @Test
+  public void reconnect_closed_pooled_connection() {
+    settings.setProperty(OidcConfiguration.LDAP_CACHE_TTL, 0);
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).hasSize(2);
+    server.closeAllConnections(false);
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).hasSize(2);
+  }
+
+  @Test
+  public void fail_if_directory_is_not_available() {
+    settings.setProperty(OidcConfiguration.LDAP_BIND_PASSWORD, "wrong");
+    assertThat(underTest.getGroups("sub-john", "john", null, Deadline.none())).isNull();
+  }
+
+  @Test
+  public void limit_wait_for_connection_of_exhausted_pool() throws Exception {
+    settings.setProperty(OidcConfiguration.LDAP_CACHE_TTL, 0);
+    server.setProcessingDelayMillis(300);
+    ExecutorService executor = Executors.newFixedThreadPool(LdapGroupEnricher.POOL_SIZE);
+    try {
+      List<Future<Set<String>>> results = new ArrayList<>();
+      for (int i = 0; i < LdapGroupEnricher.POOL_SIZE; i++) {
+        results.add(executor.submit(() -> underTest.getGroups("sub-john", "john", null, Deadline.none())));
+      }
+      // Give the searches time to take all connections of the pool
+      Thread.sleep(100);
+
+      long start = System.nanoTime();
+      assertThat(underTest.getGroups("sub-jane", "jane", null, Deadline.afterMillis(200))).isNull();
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(1_500);
+      for (Future<Set<String>> result : results) {
+        assertThat(result.get(10, TimeUnit.SECONDS)).hasSize(2);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void fail_if_login_timed_out() {
+    assertThatThrownBy(() -> underTest.getGroups("sub-john", "john", null, Deadline.afterMillis(0)))
+        .isInstanceOf(IllegalStateException.class).hasMessageStartingWith("Login timed out");
+  }
+
+  @Test
+  public void enrich_user_identity() throws ParseException {
+    UserIdentityFactory factory = new UserIdentityFactory(config, system2);
+    settings.setProperty(OidcConfiguration.LDAP_CACHE_TTL, 0);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "testers");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "admins=sonar-administrators");
+    config.invalidate();
+    UserInfo userInfo = UserInfo.parse("{\"sub\":\"sub-jane\",\"preferred_username\":\"jane\","
+        + "\"name\":\"Jane Doe\",\"groups\":[\"users\"]}");
+
+    UserIdentity identity = factory.create(userInfo);
+    assertThat(identity.getGroups()).containsExactlyInAnyOrder("users", "developers");
+
+    settings.setProperty(OidcConfiguration.LDAP_BIND_PASSWORD, "wrong");
+    config.invalidate();
+    identity = factory.create(userInfo);
+    assertThat(identity.shouldSyncGroups()).isFalse();
+    factory.stop();
+  }
+
+  private void addGroup(String name, String... members) throws Exception {
+    String[] ldif = new String[members.length + 3];
+    ldif[0] = "dn: cn=" + name + ",ou=groups," + BASE_DN;
+    ldif[1] = "objectClass: posixGroup";
+    ldif[2] = "cn: " + name;
+    for (int i = 0; i < members.length; i++) {
+      ldif[i + 3] = "memberUid: " + members[i];
+    }
+    server.add(ldif);
+  }
+
+}
@@ -18,14 +18,23 @@
 package org.vaulttec.sonarqube.auth.oidc;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.entry;
 import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.ID_TOKEN_SIG_ALG_RSA;
 import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.LOGIN_STRATEGY_PREFERRED_USERNAME;
 import static org.vaulttec.sonarqube.auth.oidc.OidcConfiguration.LOGIN_STRATEGY_PROVIDER_ID;
 
 import org.junit.Test;
 import org.sonar.api.CoreProperties;
+import org.sonar.api.config.GlobalPropertyChangeHandler.PropertyChange;
 import org.sonar.api.config.PropertyDefinitions;
 import org.sonar.api.config.internal.MapSettings;
+import org.sonar.api.utils.internal.TestSystem2;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.oauth2.sdk.Scope;
+import com.nimbusds.oauth2.sdk.auth.Secret;
+import com.nimbusds.oauth2.sdk.id.ClientID;
 
 public class OidcConfigurationTest {
 
@@ -161,9 +170,263 @@ public class OidcConfigurationTest {
     assertThat(underTest.loginButtonText()).isEqualTo("My Company Single-Sign-On");
   }
 
+  @Test
+  public void provider_metadata_cache_ttl() {
+    assertThat(underTest.providerMetadataCacheTtl()).isEqualTo(3600);
+    settings.setProperty(OidcConfiguration.PROVIDER_METADATA_CACHE_TTL, 60);
+    assertThat(underTest.providerMetadataCacheTtl()).isEqualTo(60);
+  }
+
+  @Test
+  public void jwk_set_cache_ttl() {
+    assertThat(underTest.jwkSetCacheTtl()).isEqualTo(3600);
+    settings.setProperty(OidcConfiguration.JWK_SET_CACHE_TTL, 60);
+    assertThat(underTest.jwkSetCacheTtl()).isEqualTo(60);
+  }
+
+  @Test
+  public void cache_grace_period() {
+    assertThat(underTest.cacheGracePeriod()).isEqualTo(3600);
+    settings.setProperty(OidcConfiguration.CACHE_GRACE_PERIOD, 0);
+    assertThat(underTest.cacheGracePeriod()).isZero();
+  }
+
+  @Test
+  public void concurrent_callback() {
+    assertThat(underTest.concurrentCallback()).isFalse();
+    settings.setProperty(OidcConfiguration.CONCURRENT_CALLBACK, true);
+    assertThat(underTest.concurrentCallback()).isTrue();
+  }
+
+  @Test
+  public void http_connection_pool() {
+    assertThat(underTest.httpMaxConnections()).isEqualTo(20);
+    assertThat(underTest.httpMaxConnectionsPerHost()).isEqualTo(10);
+    assertThat(underTest.httpIdleTimeout()).isEqualTo(60);
+    settings.setProperty(OidcConfiguration.HTTP_MAX_CONNECTIONS, 5);
+    settings.setProperty(OidcConfiguration.HTTP_MAX_CONNECTIONS_PER_HOST, 2);
+    settings.setProperty(OidcConfiguration.HTTP_IDLE_TIMEOUT, 10);
+    assertThat(underTest.httpMaxConnections()).isEqualTo(5);
+    assertThat(underTest.httpMaxConnectionsPerHost()).isEqualTo(2);
+    assertThat(underTest.httpIdleTimeout()).isEqualTo(10);
+  }
+
+  @Test
+  public void http_timeouts() {
+    assertThat(underTest.httpConnectTimeout()).isEqualTo(5);
+    assertThat(underTest.httpReadTimeout()).isEqualTo(10);
+    assertThat(underTest.tokenReadTimeout()).isEqualTo(10);
+    assertThat(underTest.userInfoReadTimeout()).isEqualTo(10);
+    assertThat(underTest.loginTimeout()).isEqualTo(30);
+    settings.setProperty(OidcConfiguration.HTTP_CONNECT_TIMEOUT, 1);
+    settings.setProperty(OidcConfiguration.HTTP_READ_TIMEOUT, 2);
+    settings.setProperty(OidcConfiguration.TOKEN_READ_TIMEOUT, 3);
+    settings.setProperty(OidcConfiguration.USER_INFO_READ_TIMEOUT, 4);
+    settings.setProperty(OidcConfiguration.LOGIN_TIMEOUT, 0);
+    assertThat(underTest.httpConnectTimeout()).isEqualTo(1);
+    assertThat(underTest.httpReadTimeout()).isEqualTo(2);
+    assertThat(underTest.tokenReadTimeout()).isEqualTo(3);
+    assertThat(underTest.userInfoReadTimeout()).isEqualTo(4);
+    assertThat(underTest.loginTimeout()).isZero();
+  }
+
+  @Test
+  public void http_max_concurrent_requests() {
+    assertThat(underTest.httpMaxConcurrentRequests()).isEqualTo(50);
+    settings.setProperty(OidcConfiguration.HTTP_MAX_CONCURRENT_REQUESTS, 0);
+    assertThat(underTest.httpMaxConcurrentRequests()).isZero();
+  }
+
+  @Test
+  public void http_max_response_size() {
+    assertThat(underTest.httpMaxResponseSize()).isEqualTo(1024);
+    settings.setProperty(OidcConfiguration.HTTP_MAX_RESPONSE_SIZE, 64);
+    assertThat(underTest.httpMaxResponseSize()).isEqualTo(64);
+  }
+
+  @Test
+  public void http_compression() {
+    assertThat(underTest.httpCompression()).isTrue();
+    settings.setProperty(OidcConfiguration.HTTP_COMPRESSION, false);
+    assertThat(underTest.httpCompression()).isFalse();
+  }
+
+  @Test
+  public void http_max_attempts() {
+    assertThat(underTest.httpMaxAttempts()).isEqualTo(3);
+    settings.setProperty(OidcConfiguration.HTTP_MAX_ATTEMPTS, 1);
+    assertThat(underTest.httpMaxAttempts()).isEqualTo(1);
+  }
+
+  @Test
+  public void user_info_cache() {
+    assertThat(underTest.userInfoCacheTtl()).isZero();
+    assertThat(underTest.userInfoCacheSize()).isEqualTo(1000);
+    settings.setProperty(OidcConfiguration.USER_INFO_CACHE_TTL, 300);
+    settings.setProperty(OidcConfiguration.USER_INFO_CACHE_SIZE, 10);
+    assertThat(underTest.userInfoCacheTtl()).isEqualTo(300);
+    assertThat(underTest.userInfoCacheSize()).isEqualTo(10);
+  }
+
+  @Test
+  public void claim_sources() {
+    assertThat(underTest.claimSources()).isEmpty();
+    settings.setProperty(OidcConfiguration.ID_TOKEN_SIG_ALG, "RS256");
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "roles:access_token, email:userinfo,name:ID_TOKEN");
+    assertThat(underTest.claimSources()).containsOnly(entry("roles", ClaimSource.ACCESS_TOKEN),
+        entry("email", ClaimSource.USER_INFO), entry("name", ClaimSource.ID_TOKEN));
+
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "roles");
+    assertThatThrownBy(() -> underTest.claimSources()).isInstanceOf(IllegalStateException.class)
+        .hasMessage("Invalid claim source 'roles' - expected '<claim>:<source>'");
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "roles:token");
+    assertThatThrownBy(() -> underTest.claimSources()).isInstanceOf(IllegalStateException.class)
+        .hasMessageStartingWith("Invalid claim source 'token'");
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "sub:userinfo");
+    assertThatThrownBy(() -> underTest.claimSources()).isInstanceOf(IllegalStateException.class);
+
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "roles:access_token");
+    settings.removeProperty(OidcConfiguration.ID_TOKEN_SIG_ALG);
+    assertThatThrownBy(() -> underTest.claimSources()).isInstanceOf(IllegalStateException.class)
+        .hasMessage("Source 'access_token' of claim 'roles' requires an ID token signature algorithm");
+  }
+
+  @Test
+  public void sync_groups_filters() {
+    assertThat(underTest.syncGroupsInclude()).isEmpty();
+    assertThat(underTest.syncGroupsExclude()).isEmpty();
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_INCLUDE, "sonar-*,prefix:CN=sonar");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "regex:.*-legacy");
+    assertThat(underTest.syncGroupsInclude()).containsExactly("sonar-*", "prefix:CN=sonar");
+    assertThat(underTest.syncGroupsExclude()).containsExactly("regex:.*-legacy");
+  }
+
+  @Test
+  public void sync_groups_mapping() {
+    assertThat(underTest.syncGroupsMapping()).isEmpty();
+    assertThat(underTest.syncGroupsMappingFile()).isNull();
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "admins=sonar-administrators,a=b");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING_FILE, "/etc/sonar/groups.map");
+    assertThat(underTest.syncGroupsMapping()).containsExactly("admins=sonar-administrators", "a=b");
+    assertThat(underTest.syncGroupsMappingFile()).isEqualTo("/etc/sonar/groups.map");
+  }
+
+  @Test
+  public void sync_groups_max_age() {
+    assertThat(underTest.syncGroupsMaxAge()).isZero();
+    assertThat(underTest.syncGroupsCacheSize()).isEqualTo(10000);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAX_AGE, 3600);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CACHE_SIZE, 100);
+    assertThat(underTest.syncGroupsMaxAge()).isEqualTo(3600);
+    assertThat(underTest.syncGroupsCacheSize()).isEqualTo(100);
+  }
+
+  @Test
+  public void distributed_claims() {
+    assertThat(underTest.distributedClaims()).isFalse();
+    assertThat(underTest.distributedClaimsCacheTtl()).isEqualTo(300);
+    assertThat(underTest.distributedClaimsCacheSize()).isEqualTo(1000);
+    settings.setProperty(OidcConfiguration.DISTRIBUTED_CLAIMS, true);
+    settings.setProperty(OidcConfiguration.DISTRIBUTED_CLAIMS_CACHE_TTL, 0);
+    settings.setProperty(OidcConfiguration.DISTRIBUTED_CLAIMS_CACHE_SIZE, 10);
+    assertThat(underTest.distributedClaims()).isTrue();
+    assertThat(underTest.distributedClaimsCacheTtl()).isZero();
+    assertThat(underTest.distributedClaimsCacheSize()).isEqualTo(10);
+  }
+
+  @Test
+  public void snapshot() {
+    ConfigurationSnapshot snapshot = underTest.snapshot();
+    assertThat(snapshot.isEnabled()).isFalse();
+    assertThat(snapshot.getClientId()).isNull();
+    assertThat(snapshot.getClientSecret().getValue()).isEmpty();
+    assertThat(snapshot.getIdTokenSignAlgorithm()).isNull();
+    assertThat(snapshot.getDisplay().getIconPath()).isEqualTo("/static/authoidc/openid.svg");
+    assertThat(underTest.snapshot()).isSameAs(snapshot);
+
+    settings.setProperty(OidcConfiguration.ENABLED, true);
+    settings.setProperty(OidcConfiguration.ISSUER_URI, "http://idp.com");
+    settings.setProperty(OidcConfiguration.CLIENT_ID, "id");
+    settings.setProperty(OidcConfiguration.CLIENT_SECRET, "secret");
+    settings.setProperty(OidcConfiguration.SCOPES, "openid email");
+    settings.setProperty(OidcConfiguration.ID_TOKEN_SIG_ALG, "ES256");
+    settings.setProperty(OidcConfiguration.ICON_PATH, "/static/icon.svg");
+    underTest.invalidate();
+    snapshot = underTest.snapshot();
+    assertThat(snapshot.isEnabled()).isTrue();
+    assertThat(snapshot.getIssuerUri()).isEqualTo("http://idp.com");
+    assertThat(snapshot.getClientId()).isEqualTo(new ClientID("id"));
+    assertThat(snapshot.getClientSecret()).isEqualTo(new Secret("secret"));
+    assertThat(snapshot.getScope()).isEqualTo(Scope.parse("openid email"));
+    assertThat(snapshot.getIdTokenSignAlgorithm()).isEqualTo(JWSAlgorithm.ES256);
+    assertThat(snapshot.getDisplay().getIconPath()).isEqualTo("/static/icon.svg");
+    assertThat(underTest.snapshot()).isSameAs(snapshot);
+  }
+
+  @Test
+  public void snapshot_is_checked_periodically() {
+    TestSystem2 system2 = new TestSystem2().setNow(1_000_000);
+    OidcConfiguration configuration = new OidcConfiguration(settings.asConfig(), system2);
+    ConfigurationSnapshot snapshot = configuration.snapshot();
+    assertThat(snapshot.getLoginTimeout()).isEqualTo(30);
+
+    settings.setProperty(OidcConfiguration.LOGIN_TIMEOUT, 10);
+    system2.setNow(1_000_000 + OidcConfiguration.SNAPSHOT_CHECK_INTERVAL - 1);
+    assertThat(configuration.snapshot()).isSameAs(snapshot);
+    system2.setNow(1_000_000 + OidcConfiguration.SNAPSHOT_CHECK_INTERVAL);
+    snapshot = configuration.snapshot();
+    assertThat(snapshot.getLoginTimeout()).isEqualTo(10);
+
+    system2.setNow(1_000_000 + 2 * OidcConfiguration.SNAPSHOT_CHECK_INTERVAL);
+    assertThat(configuration.snapshot()).isSameAs(snapshot);
+  }
+
+  @Test
+  public void snapshot_defers_invalid_settings() {
+    settings.setProperty(OidcConfiguration.CLAIM_SOURCES, "invalid");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access.roles");
+    ConfigurationSnapshot snapshot = underTest.snapshot();
+    assertThat(snapshot.isEnabled()).isFalse();
+    assertThatThrownBy(snapshot::getClaimSources).isInstanceOf(IllegalStateException.class)
+        .hasMessageStartingWith("Invalid claim source 'invalid'");
+    assertThat(snapshot.getGroupsClaimPath().getClaimNames()).containsExactly("realm_access.roles", "realm_access");
+    assertThat(snapshot.getLoginClaimPath()).isNull();
+  }
+
+  @Test
+  public void invalidate_snapshot_on_change() {
+    ConfigurationSnapshot snapshot = underTest.snapshot();
+    SettingsChangeHandler handler = new SettingsChangeHandler(underTest);
+    handler.onChange(PropertyChange.create("sonar.other", "value"));
+    assertThat(underTest.snapshot()).isSameAs(snapshot);
+    settings.setProperty(OidcConfiguration.LOGIN_BUTTON_TEXT, "Login");
+    handler.onChange(PropertyChange.create(OidcConfiguration.LOGIN_BUTTON_TEXT, "Login"));
+    assertThat(underTest.snapshot().getLoginButtonText()).isEqualTo("Login");
+  }
+
+  @Test
+  public void ldap() {
+    assertThat(underTest.ldapUrl()).isNull();
+    assertThat(underTest.ldapBindDn()).isNull();
+    assertThat(underTest.ldapBindPassword()).isNull();
+    assertThat(underTest.ldapGroupSearchBase()).isEmpty();
+    assertThat(underTest.ldapGroupSearchFilter()).isEqualTo("(memberUid={0})");
+    assertThat(underTest.ldapGroupNameAttribute()).isEqualTo("cn");
+    assertThat(underTest.ldapCacheTtl()).isEqualTo(300);
+    settings.setProperty(OidcConfiguration.LDAP_URL, "ldap://ldap.acme.com");
+    settings.setProperty(OidcConfiguration.LDAP_BIND_DN, "cn=admin");
+    settings.setProperty(OidcConfiguration.LDAP_BIND_PASSWORD, "secret");
+    settings.setProperty(OidcConfiguration.LDAP_GROUP_SEARCH_BASE, "ou=groups,dc=acme,dc=com");
+    assertThat(underTest.ldapUrl()).isEqualTo("ldap://ldap.acme.com");
+    assertThat(underTest.ldapBindDn()).isEqualTo("cn=admin");
+    assertThat(underTest.ldapBindPassword()).isEqualTo("secret");
+    assertThat(underTest.ldapGroupSearchBase()).isEqualTo("ou=groups,dc=acme,dc=com");
+  }
+
   @Test
   public void definitions() {
-    assertThat(OidcConfiguration.definitions()).hasSize(15);
+    assertThat(OidcConfiguration.definitions()).hasSize(51);
   }
 
   @Test
@@ -59,6 +59,7 @@ public class OidcIdentityProviderTest extends AbstractOidcTest {
     assertThat(underTest.isEnabled()).isTrue();
 
     settings.setProperty(OidcConfiguration.ENABLED, false);
+    config.invalidate();
     assertThat(underTest.isEnabled()).isFalse();
   }
 
@@ -67,6 +68,7 @@ public class OidcIdentityProviderTest extends AbstractOidcTest {
     assertThat(underTest.allowsUsersToSignUp()).as("default").isFalse();
 
     settings.setProperty(OidcConfiguration.ALLOW_USERS_TO_SIGN_UP, true);
+    config.invalidate();
     assertThat(underTest.allowsUsersToSignUp()).isTrue();
   }
 
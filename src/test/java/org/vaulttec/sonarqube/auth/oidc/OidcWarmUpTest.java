@@ -0,0 +1,103 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+public class OidcWarmUpTest extends AbstractOidcTest {
+
+  private OidcClient client = mock(OidcClient.class);
+  private ProviderSnapshotStore snapshotStore = mock(ProviderSnapshotStore.class);
+  private OidcWarmUp underTest = new OidcWarmUp(config, client, snapshotStore);
+
+  @After
+  public void stop() {
+    underTest.stop();
+  }
+
+  @Test
+  public void warm_up_if_enabled() {
+    setSettings(true);
+    underTest.start();
+    verify(client, timeout(5000)).warmUp();
+  }
+
+  @Test
+  public void no_warm_up_if_disabled() throws InterruptedException {
+    setSettings(false);
+    underTest.start();
+    underTest.stop();
+    verify(client, never()).warmUp();
+    verify(snapshotStore, never()).save(any());
+  }
+
+  @Test
+  public void restore_snapshot_before_warm_up() {
+    setSettings(true);
+    ProviderSnapshot snapshot = new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 1L);
+    when(snapshotStore.load()).thenReturn(snapshot);
+    underTest.start();
+
+    InOrder inOrder = inOrder(client);
+    inOrder.verify(client, timeout(5000)).restore(snapshot);
+    inOrder.verify(client, timeout(5000)).warmUp();
+  }
+
+  @Test
+  public void warm_up_if_snapshot_is_unusable() {
+    setSettings(true);
+    ProviderSnapshot snapshot = new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 1L);
+    when(snapshotStore.load()).thenReturn(snapshot);
+    when(client.restore(snapshot)).thenThrow(new IllegalArgumentException("Invalid issuer"));
+    underTest.start();
+    verify(client, timeout(5000)).warmUp();
+  }
+
+  @Test
+  public void save_snapshot_after_warm_up_and_on_stop() {
+    setSettings(true);
+    ProviderSnapshot snapshot = new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 1L);
+    when(client.createSnapshot()).thenReturn(snapshot);
+    underTest.start();
+    verify(snapshotStore, timeout(5000)).save(snapshot);
+
+    underTest.stop();
+    verify(snapshotStore, times(2)).save(snapshot);
+  }
+
+  @Test
+  public void failed_warm_up_does_not_fail_start() {
+    setSettings(true);
+    doThrow(new IllegalStateException("Retrieving OpenID Connect provider metadata failed")).when(client).warmUp();
+    underTest.start();
+    verify(client, timeout(5000)).warmUp();
+  }
+
+}
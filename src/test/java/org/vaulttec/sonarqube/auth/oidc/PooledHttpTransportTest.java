@@ -0,0 +1,212 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.nimbusds.common.contenttype.ContentType;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
+import com.nimbusds.oauth2.sdk.http.HTTPResponse;
+
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.Buffer;
+
+import net.minidev.json.JSONObject;
+
+public class PooledHttpTransportTest {
+
+  @Rule
+  public MockWebServer server = new MockWebServer();
+
+  private final PooledHttpTransport underTest = new PooledHttpTransport(4, 2, 60, 100, true);
+
+  @After
+  public void close() throws IOException {
+    underTest.close();
+  }
+
+  @Test
+  public void send_get_request() throws Exception {
+    server.enqueue(new MockResponse().setBody("{\"key\":\"value\"}").setHeader("Content-Type", "application/json")
+        .setHeader("Cache-Control", "max-age=60"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    request.setAuthorization("Bearer token");
+
+    HTTPResponse response = underTest.send(request);
+    assertThat(response.getStatusCode()).isEqualTo(200);
+    assertThat(response.getEntityContentType().matches(ContentType.APPLICATION_JSON)).isTrue();
+    assertThat(response.getCacheControl()).isEqualTo("max-age=60");
+    assertThat(response.getContentAsJSONObject()).containsEntry("key", "value");
+
+    RecordedRequest recordedRequest = server.takeRequest();
+    assertThat(recordedRequest.getMethod()).isEqualTo("GET");
+    assertThat(recordedRequest.getPath()).isEqualTo("/userinfo");
+    assertThat(recordedRequest.getHeader("Authorization")).isEqualTo("Bearer token");
+  }
+
+  @Test
+  public void send_post_request() throws Exception {
+    server.enqueue(new MockResponse().setResponseCode(400).setBody("{\"error\":\"invalid_grant\"}")
+        .setHeader("Content-Type", "application/json"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.POST, server.url("/token").url());
+    request.setEntityContentType(ContentType.APPLICATION_URLENCODED);
+    request.setQuery("grant_type=authorization_code&code=123");
+
+    HTTPResponse response = underTest.send(request);
+    assertThat(response.getStatusCode()).isEqualTo(400);
+    assertThat(response.getContent()).isEqualTo("{\"error\":\"invalid_grant\"}");
+
+    RecordedRequest recordedRequest = server.takeRequest();
+    assertThat(recordedRequest.getMethod()).isEqualTo("POST");
+    assertThat(recordedRequest.getHeader("Content-Type")).startsWith("application/x-www-form-urlencoded");
+    assertThat(recordedRequest.getBody().readUtf8()).isEqualTo("grant_type=authorization_code&code=123");
+  }
+
+  @Test
+  public void reuse_connections() throws Exception {
+    server.enqueue(new MockResponse().setBody("first"));
+    server.enqueue(new MockResponse().setBody("second"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/certs").url());
+
+    assertThat(underTest.send(request).getContent()).isEqualTo("first");
+    assertThat(underTest.send(request).getContent()).isEqualTo("second");
+    assertThat(server.takeRequest().getSequenceNumber()).isZero();
+    assertThat(server.takeRequest().getSequenceNumber()).isEqualTo(1);
+    assertThat(underTest.getAvailableConnections()).isEqualTo(1);
+  }
+
+  @Test
+  public void reject_too_large_response() {
+    server.enqueue(new MockResponse().setBody(repeat('x', 101)));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    assertThatThrownBy(() -> underTest.send(request)).isInstanceOf(ResponseTooLargeException.class)
+        .hasMessage("Response of identity provider exceeds maximum size of 100 bytes");
+  }
+
+  @Test
+  public void reject_too_large_chunked_response() {
+    server.enqueue(new MockResponse().setChunkedBody(repeat('x', 101), 10));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    assertThatThrownBy(() -> underTest.send(request)).isInstanceOf(ResponseTooLargeException.class);
+  }
+
+  @Test
+  public void stream_response_content() throws Exception {
+    server.enqueue(new MockResponse().setBody("{\"sub\":\"john\",\"unused\":\"value\"}"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    JSONObject claims = underTest.send(request,
+        (response, content) -> JsonStreamReader.readObject(content, Collections.singleton("sub")));
+    assertThat(claims).containsOnlyKeys("sub");
+  }
+
+  @Test
+  public void limit_wait_for_connection_of_exhausted_pool() throws Exception {
+    CountDownLatch leased = new CountDownLatch(2);
+    CountDownLatch release = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      for (int i = 0; i < 2; i++) {
+        server.enqueue(new MockResponse().setBody("leased"));
+        executor.submit(() -> underTest.send(new HTTPRequest(HTTPRequest.Method.GET, server.url("/jwks").url()),
+            (response, content) -> {
+              leased.countDown();
+              return release.await(5, TimeUnit.SECONDS);
+            }));
+      }
+      assertThat(leased.await(5, TimeUnit.SECONDS)).isTrue();
+
+      HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/jwks").url());
+      request.setConnectTimeout(200);
+      long start = System.nanoTime();
+      assertThatThrownBy(() -> underTest.send(request)).isInstanceOf(ConnectionPoolTimeoutException.class);
+      assertThat(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)).isLessThan(5_000);
+    } finally {
+      release.countDown();
+      executor.shutdownNow();
+    }
+  }
+
+  private static String repeat(char c, int count) {
+    char[] chars = new char[count];
+    Arrays.fill(chars, c);
+    return new String(chars);
+  }
+
+  @Test
+  public void decompress_gzip_response() throws Exception {
+    server.enqueue(new MockResponse().setBody(compress("{\"groups\":[\"admins\"]}", true))
+        .setHeader("Content-Encoding", "gzip"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    assertThat(underTest.send(request).getContent()).isEqualTo("{\"groups\":[\"admins\"]}");
+    assertThat(server.takeRequest().getHeader("Accept-Encoding")).contains("gzip", "deflate");
+  }
+
+  @Test
+  public void decompress_deflate_response() throws Exception {
+    server.enqueue(new MockResponse().setBody(compress("{\"groups\":[\"admins\"]}", false))
+        .setHeader("Content-Encoding", "deflate"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    assertThat(underTest.send(request).getContent()).isEqualTo("{\"groups\":[\"admins\"]}");
+  }
+
+  @Test
+  public void limit_decompressed_size() throws Exception {
+    server.enqueue(new MockResponse().setBody(compress(repeat('x', 1000), true)).setHeader("Content-Encoding", "gzip"));
+    HTTPRequest request = new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url());
+    assertThatThrownBy(() -> underTest.send(request)).isInstanceOf(ResponseTooLargeException.class);
+  }
+
+  @Test
+  public void no_compression_if_disabled() throws Exception {
+    try (PooledHttpTransport transport = new PooledHttpTransport(4, 2, 60, 100, false)) {
+      server.enqueue(new MockResponse().setBody("content"));
+      transport.send(new HTTPRequest(HTTPRequest.Method.GET, server.url("/userinfo").url()));
+      assertThat(server.takeRequest().getHeader("Accept-Encoding")).isNull();
+    }
+  }
+
+  private static Buffer compress(String content, boolean gzip) throws IOException {
+    Buffer buffer = new Buffer();
+    try (OutputStream out = gzip ? new GZIPOutputStream(buffer.outputStream())
+        : new DeflaterOutputStream(buffer.outputStream())) {
+      out.write(content.getBytes(StandardCharsets.UTF_8));
+    }
+    return buffer;
+  }
+
+}
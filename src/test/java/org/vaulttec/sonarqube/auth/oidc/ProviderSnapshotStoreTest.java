@@ -0,0 +1,120 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.sonar.api.platform.ServerFileSystem;
+
+public class ProviderSnapshotStoreTest extends AbstractOidcTest {
+
+  @Rule
+  public TemporaryFolder temp = new TemporaryFolder();
+
+  private File homeDir;
+  private ProviderSnapshotStore underTest;
+
+  @Before
+  public void init() throws IOException {
+    homeDir = temp.newFolder();
+    ServerFileSystem fileSystem = mock(ServerFileSystem.class);
+    when(fileSystem.getHomeDir()).thenReturn(homeDir);
+    underTest = new ProviderSnapshotStore(config, fileSystem);
+  }
+
+  @Test
+  public void save_and_load() throws JOSEException {
+    JWKSet jwkSet = new JWKSet(new RSAKeyGenerator(2048).keyID("1").generate());
+    underTest.save(new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), jwkSet, 42L));
+    assertThat(new File(homeDir, "data/authoidc/provider-snapshot.json")).exists();
+
+    ProviderSnapshot snapshot = underTest.load();
+    assertThat(snapshot.getIssuerUri()).isEqualTo(ISSUER_URI);
+    assertThat(snapshot.getTimestamp()).isEqualTo(42L);
+    assertThat(snapshot.getProviderMetadata().getJWKSetURI())
+        .isEqualTo(getProviderMetadata(ISSUER_URI).getJWKSetURI());
+    assertThat(snapshot.getJwkSet().getKeyByKeyId("1").isPrivate()).isFalse();
+  }
+
+  @Test
+  public void save_and_load_without_jwk_set() {
+    underTest.save(new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 42L));
+
+    ProviderSnapshot snapshot = underTest.load();
+    assertThat(snapshot.getIssuerUri()).isEqualTo(ISSUER_URI);
+    assertThat(snapshot.getJwkSet()).isNull();
+  }
+
+  @Test
+  public void absolute_data_path() throws IOException {
+    File dataDir = temp.newFolder();
+    settings.setProperty("sonar.path.data", dataDir.getAbsolutePath());
+    assertThat(underTest.getFile()).isEqualTo(dataDir.toPath().resolve("authoidc/provider-snapshot.json"));
+  }
+
+  @Test
+  public void missing_snapshot() {
+    assertThat(underTest.load()).isNull();
+  }
+
+  @Test
+  public void ignore_snapshot_with_invalid_checksum() throws IOException {
+    underTest.save(new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 42L));
+    Path file = underTest.getFile();
+    String content = new String(Files.readAllBytes(file), UTF_8);
+    Files.write(file, content.replace("RS256", "HS256").getBytes(UTF_8));
+
+    assertThat(underTest.load()).isNull();
+  }
+
+  @Test
+  public void ignore_snapshot_without_issuer() throws IOException {
+    underTest.save(new ProviderSnapshot(ISSUER_URI, getProviderMetadata(ISSUER_URI), null, 42L));
+    Path file = underTest.getFile();
+    String content = new String(Files.readAllBytes(file), UTF_8);
+    Files.write(file, content.replace("\"issuer\":", "\"issuerUri\":").getBytes(UTF_8));
+
+    assertThat(underTest.load()).isNull();
+  }
+
+  @Test
+  public void ignore_corrupted_snapshot() throws IOException {
+    Path file = underTest.getFile();
+    Files.createDirectories(file.getParent());
+    Files.write(file, "{\"version\":1,".getBytes(UTF_8));
+
+    assertThat(underTest.load()).isNull();
+  }
+
+}
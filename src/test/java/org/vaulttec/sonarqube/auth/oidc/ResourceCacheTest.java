@@ -0,0 +1,347 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.sonar.api.utils.internal.TestSystem2;
+
+public class ResourceCacheTest {
+
+  private static final long NOW = 1_000_000;
+  private static final long TTL = 1000;
+
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private final ScheduledExecutorService executor = mock(ScheduledExecutorService.class);
+  private final List<String> loadedKeys = new ArrayList<>();
+  private long ttl = TTL;
+  private long gracePeriod = 0;
+  private boolean failing = false;
+  private int attempts = 0;
+
+  private Long maxAge = null;
+  private HttpResource<String> previous;
+  private Deadline deadline;
+
+  private final ResourceCache<String> underTest = new ResourceCache<>("test resource", this::load, () -> ttl,
+      () -> gracePeriod, executor, system2);
+
+  @Test
+  public void cache_within_ttl() {
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    system2.setNow(NOW + TTL - 1);
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    assertThat(loadedKeys).containsExactly("key");
+  }
+
+  @Test
+  public void reload_after_ttl() {
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    system2.setNow(NOW + TTL);
+    assertThat(underTest.get("key")).isEqualTo("key-2");
+  }
+
+  @Test
+  public void reload_if_key_changed() {
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    assertThat(underTest.get("other")).isEqualTo("other-2");
+    assertThat(loadedKeys).containsExactly("key", "other");
+  }
+
+  @Test
+  public void reload_after_invalidate() {
+    underTest.get("key");
+    underTest.invalidate();
+    assertThat(underTest.get("key")).isEqualTo("key-2");
+  }
+
+  @Test
+  public void disabled_cache() {
+    ttl = 0;
+    underTest.get("key");
+    underTest.get("key");
+    assertThat(loadedKeys).hasSize(2);
+  }
+
+  @Test
+  public void schedule_refresh_with_jitter() {
+    underTest.get("key");
+
+    ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+    verify(executor).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+    assertThat(delay.getValue()).isBetween((long) (TTL * ResourceCache.REFRESH_MIN_RATIO),
+        (long) (TTL * (ResourceCache.REFRESH_MIN_RATIO + ResourceCache.REFRESH_JITTER_RATIO)));
+  }
+
+  @Test
+  public void background_refresh() {
+    underTest.get("key");
+
+    ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(refresh.capture(), anyLong(), any());
+    refresh.getValue().run();
+    assertThat(underTest.get("key")).isEqualTo("key-2");
+    assertThat(loadedKeys).hasSize(2);
+  }
+
+  @Test
+  public void failed_background_refresh_keeps_cached_value() {
+    underTest.get("key");
+
+    ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(refresh.capture(), anyLong(), any());
+    failing = true;
+    refresh.getValue().run();
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+  }
+
+  @Test
+  public void serve_stale_value_within_grace_period() {
+    gracePeriod = TTL;
+    underTest.get("key");
+    failing = true;
+
+    system2.setNow(NOW + TTL + TTL - 1);
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    assertThat(attempts).isEqualTo(1);
+    verify(executor).schedule(any(Runnable.class), eq(0L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void load_after_grace_period() {
+    gracePeriod = TTL;
+    underTest.get("key");
+
+    system2.setNow(NOW + TTL + TTL);
+    assertThat(underTest.get("key")).isEqualTo("key-2");
+  }
+
+  @Test
+  public void cache_failure() {
+    failing = true;
+    assertThatThrownBy(() -> underTest.get("key")).hasMessage("IdP not reachable");
+    assertThatThrownBy(() -> underTest.get("key")).hasMessage("IdP not reachable");
+    assertThat(attempts).isEqualTo(1);
+
+    failing = false;
+    assertThatThrownBy(() -> underTest.get("key")).hasMessage("IdP not reachable");
+    system2.setNow(NOW + ResourceCache.FAILURE_TTL);
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    assertThat(attempts).isEqualTo(2);
+  }
+
+  @Test
+  public void do_not_cache_failure_after_deadline_expired() {
+    failing = true;
+    assertThatThrownBy(() -> underTest.get("key", Deadline.afterMillis(0))).hasMessage("IdP not reachable");
+
+    failing = false;
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    assertThat(attempts).isEqualTo(2);
+  }
+
+  @Test
+  public void do_not_use_cached_failure_for_other_key() {
+    failing = true;
+    assertThatThrownBy(() -> underTest.get("key")).hasMessage("IdP not reachable");
+    failing = false;
+    assertThat(underTest.get("other")).isEqualTo("other-1");
+  }
+
+  @Test
+  public void retry_failed_background_refresh_with_backoff() {
+    gracePeriod = ResourceCache.MAX_RETRY_DELAY * 10;
+    underTest.get("key");
+
+    ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(refresh.capture(), anyLong(), any());
+    failing = true;
+    refresh.getValue().run();
+    refresh.getValue().run();
+
+    ArgumentCaptor<Long> delay = ArgumentCaptor.forClass(Long.class);
+    verify(executor, times(3)).schedule(any(Runnable.class), delay.capture(), eq(TimeUnit.MILLISECONDS));
+    assertThat(delay.getAllValues().get(1)).isBetween(ResourceCache.MIN_RETRY_DELAY,
+        (long) (ResourceCache.MIN_RETRY_DELAY * (1 + ResourceCache.REFRESH_JITTER_RATIO)));
+    assertThat(delay.getAllValues().get(2)).isBetween(2 * ResourceCache.MIN_RETRY_DELAY,
+        (long) (2 * ResourceCache.MIN_RETRY_DELAY * (1 + ResourceCache.REFRESH_JITTER_RATIO)));
+  }
+
+  @Test
+  public void prime_and_revalidate() {
+    assertThat(underTest.prime("key", "snapshot", NOW - 1)).isTrue();
+    assertThat(underTest.get("key")).isEqualTo("snapshot");
+    assertThat(underTest.peek("key").getLoadedAt()).isEqualTo(NOW - 1);
+    assertThat(attempts).isZero();
+
+    ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(refresh.capture(), eq(0L), eq(TimeUnit.MILLISECONDS));
+    refresh.getValue().run();
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+  }
+
+  @Test
+  public void do_not_prime_with_outdated_value() {
+    gracePeriod = TTL;
+    assertThat(underTest.prime("key", "snapshot", NOW - TTL - gracePeriod)).isFalse();
+    assertThat(underTest.peek("key")).isNull();
+  }
+
+  @Test
+  public void do_not_prime_cached_value() {
+    underTest.get("key");
+    assertThat(underTest.prime("key", "snapshot", NOW)).isFalse();
+    assertThat(underTest.peek("key").getValue()).isEqualTo("key-1");
+  }
+
+  @Test
+  public void use_max_age_as_ttl() {
+    maxAge = 3600L;
+    underTest.get("key");
+    system2.setNow(NOW + 3_600_000 - 1);
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+    system2.setNow(NOW + 3_600_000);
+    assertThat(underTest.get("key")).isEqualTo("key-2");
+  }
+
+  @Test
+  public void limit_max_age() {
+    maxAge = 0L;
+    underTest.get("key");
+    system2.setNow(NOW + ResourceCache.MIN_MAX_AGE - 1);
+    assertThat(underTest.get("key")).isEqualTo("key-1");
+
+    maxAge = Long.MAX_VALUE / 1000;
+    system2.setNow(NOW + ResourceCache.MIN_MAX_AGE);
+    underTest.get("key");
+    system2.setNow(NOW + ResourceCache.MIN_MAX_AGE + ResourceCache.MAX_MAX_AGE);
+    assertThat(underTest.get("key")).isEqualTo("key-3");
+  }
+
+  @Test
+  public void pass_cached_resource_to_loader() {
+    underTest.get("key");
+    assertThat(previous).isNull();
+    system2.setNow(NOW + TTL);
+    underTest.get("key");
+    assertThat(previous.getValue()).isEqualTo("key-1");
+    underTest.get("other");
+    assertThat(previous).isNull();
+  }
+
+  @Test
+  public void pass_deadline_to_loader() {
+    Deadline loginDeadline = Deadline.after(10);
+    underTest.get("key", loginDeadline);
+    assertThat(deadline).isSameAs(loginDeadline);
+    underTest.reload("key");
+    assertThat(deadline).isNull();
+    underTest.reload("key", loginDeadline);
+    assertThat(deadline).isSameAs(loginDeadline);
+  }
+
+  @Test
+  public void coalesce_concurrent_loads() throws Exception {
+    ttl = 0;
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ResourceCache<String> cache = new ResourceCache<>("test resource", (key, resource, deadline) -> {
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return load(key, resource, deadline);
+    }, () -> ttl, () -> gracePeriod, executor, system2);
+    ExecutorService callers = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        results.add(callers.submit(() -> cache.get("key")));
+      }
+      loading.await();
+      // Give the other callers time to join the load in flight
+      Thread.sleep(100);
+      release.countDown();
+      for (Future<String> result : results) {
+        assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("key-1");
+      }
+      assertThat(attempts).isEqualTo(1);
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  @Test
+  public void invalidate_while_loading() throws Exception {
+    CountDownLatch loading = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    ResourceCache<String> cache = new ResourceCache<>("test resource", (key, resource, deadline) -> {
+      loading.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return load(key, resource, deadline);
+    }, () -> ttl, () -> gracePeriod, executor, system2);
+    ExecutorService callers = Executors.newSingleThreadExecutor();
+    try {
+      Future<String> result = callers.submit(() -> cache.get("key"));
+      loading.await();
+      // The lock isn't held while loading, so the invalidation doesn't wait for the load
+      cache.invalidate();
+      release.countDown();
+      assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("key-1");
+      assertThat(cache.peek("key")).isNull();
+    } finally {
+      callers.shutdownNow();
+    }
+  }
+
+  private HttpResource<String> load(String key, HttpResource<String> previous, Deadline deadline) {
+    this.previous = previous;
+    this.deadline = deadline;
+    attempts++;
+    if (failing) {
+      throw new IllegalStateException("IdP not reachable");
+    }
+    loadedKeys.add(key);
+    return new HttpResource<>(key + "-" + loadedKeys.size(), null, null, maxAge);
+  }
+
+}
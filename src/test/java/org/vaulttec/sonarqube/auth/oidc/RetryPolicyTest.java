@@ -0,0 +1,93 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RetryPolicyTest {
+
+  @Test
+  public void retryTransientErrors() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    String result = new RetryPolicy(3, 1, 10).execute(Deadline.none(), () -> {
+      if (attempts.incrementAndGet() < 3) {
+        throw new SocketException("Connection reset");
+      }
+      return "ok";
+    });
+    assertThat(result).isEqualTo("ok");
+    assertThat(attempts).hasValue(3);
+  }
+
+  @Test
+  public void rethrowLastErrorIfAttemptsUsedUp() {
+    AtomicInteger attempts = new AtomicInteger();
+    assertThatThrownBy(() -> new RetryPolicy(2, 1, 10).execute(Deadline.none(), () -> {
+      throw new SocketException("Connection reset " + attempts.incrementAndGet());
+    })).isInstanceOf(SocketException.class).hasMessage("Connection reset 2");
+  }
+
+  @Test
+  public void dontRetryNonTransientErrors() {
+    RetryPolicy underTest = new RetryPolicy(3, 1, 10);
+    for (IOException error : new IOException[] { new SocketTimeoutException("Read timed out"),
+        new UnknownHostException("idp"), new ResponseTooLargeException(100) }) {
+      AtomicInteger attempts = new AtomicInteger();
+      assertThatThrownBy(() -> underTest.execute(Deadline.none(), () -> {
+        attempts.incrementAndGet();
+        throw error;
+      })).isSameAs(error);
+      assertThat(attempts).hasValue(1);
+    }
+  }
+
+  @Test
+  public void dontRetryBeyondDeadline() {
+    AtomicInteger attempts = new AtomicInteger();
+    assertThatThrownBy(() -> new RetryPolicy(3, 5_000, 5_000).execute(Deadline.after(1), () -> {
+      attempts.incrementAndGet();
+      throw new SocketException("Connection reset");
+    })).isInstanceOf(SocketException.class);
+    assertThat(attempts).hasValue(1);
+  }
+
+  @Test
+  public void singleAttemptDisablesRetries() {
+    assertThat(new RetryPolicy(0).getMaxAttempts()).isEqualTo(1);
+  }
+
+  @Test
+  public void jitteredExponentialBackoff() {
+    RetryPolicy underTest = new RetryPolicy(10, 100, 1000);
+    for (int i = 0; i < 100; i++) {
+      assertThat(underTest.backoffMillis(1)).isBetween(50L, 100L);
+      assertThat(underTest.backoffMillis(3)).isBetween(200L, 400L);
+      assertThat(underTest.backoffMillis(10)).isBetween(500L, 1000L);
+    }
+  }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private static final int CALLERS = 8;
+
+  private final SingleFlight<String, String> underTest = new SingleFlight<>();
+  private final ExecutorService executor = Executors.newFixedThreadPool(CALLERS);
+  private final AtomicInteger calls = new AtomicInteger();
+  private final CountDownLatch release = new CountDownLatch(1);
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void share_result_of_concurrent_calls() throws Exception {
+    List<Future<String>> results = submitCallers(() -> {
+      calls.incrementAndGet();
+      await(release);
+      return "value";
+    });
+    release.countDown();
+    for (Future<String> result : results) {
+      assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    }
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  public void share_error_of_concurrent_calls() throws Exception {
+    IllegalStateException error = new IllegalStateException("IdP not reachable");
+    List<Future<String>> results = submitCallers(() -> {
+      calls.incrementAndGet();
+      await(release);
+      throw error;
+    });
+    release.countDown();
+    for (Future<String> result : results) {
+      assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).hasCause(error);
+    }
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  public void wait_within_own_deadline() throws Exception {
+    Future<String> first = executor.submit(() -> underTest.execute("key", () -> {
+      calls.incrementAndGet();
+      await(release);
+      return "value";
+    }));
+    while (calls.get() == 0) {
+      Thread.sleep(10);
+    }
+    assertThatThrownBy(() -> underTest.execute("key", Deadline.afterMillis(100), () -> "other"))
+        .isInstanceOf(IllegalStateException.class).hasMessageStartingWith("Login timed out");
+
+    release.countDown();
+    assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("value");
+    assertThat(calls).hasValue(1);
+  }
+
+  @Test
+  public void execute_subsequent_calls() {
+    assertThat(underTest.execute("key", () -> "value-" + calls.incrementAndGet())).isEqualTo("value-1");
+    assertThat(underTest.execute("key", () -> "value-" + calls.incrementAndGet())).isEqualTo("value-2");
+    assertThat(underTest.execute(null, () -> "value-" + calls.incrementAndGet())).isEqualTo("value-3");
+  }
+
+  @Test
+  public void do_not_coalesce_calls_with_other_key() {
+    assertThat(underTest.execute("key", () -> underTest.execute("other", () -> "nested"))).isEqualTo("nested");
+  }
+
+  private List<Future<String>> submitCallers(Supplier<String> call) throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(CALLERS);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < CALLERS; i++) {
+      results.add(executor.submit(() -> {
+        started.countDown();
+        return underTest.execute("key", call);
+      }));
+    }
+    started.await();
+    // Give the callers time to join the call in flight
+    Thread.sleep(100);
+    return results;
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -23,6 +23,7 @@ import org.junit.Test;
 import org.sonar.api.config.PropertyDefinitions;
 import org.sonar.api.config.internal.MapSettings;
 import org.sonar.api.server.authentication.UserIdentity;
+import org.sonar.api.utils.internal.TestSystem2;
 
 import java.util.Arrays;
 
@@ -33,7 +34,8 @@ import static org.junit.Assert.assertTrue;
 public class UserIdentityFactoryTest {
 
   MapSettings settings = new MapSettings(new PropertyDefinitions(OidcConfiguration.definitions()));
-  UserIdentityFactory underTest = new UserIdentityFactory(new OidcConfiguration(settings.asConfig()));
+  OidcConfiguration config = new OidcConfiguration(settings.asConfig());
+  UserIdentityFactory underTest = new UserIdentityFactory(config);
 
   @Test
   public void create_for_provider_strategy() {
@@ -91,6 +93,46 @@ public class UserIdentityFactoryTest {
     assertThat(identity.getEmail()).isEqualTo("john.doo@acme.com");
   }
 
+  @Test
+  public void create_with_nested_claims() throws ParseException {
+    UserInfo userInfo = UserInfo.parse("{\"sub\":\"8f63a486\",\"name\":\"John Doo\","
+        + "\"ext\":{\"logins\":[\"jdoo\"]},\"realm_access\":{\"roles\":[\"admins\",\"users\"]},"
+        + "\"resource_access\":{\"my.client\":{\"roles\":\"developers\"}}}");
+    settings.setProperty(OidcConfiguration.LOGIN_STRATEGY, OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM);
+    settings.setProperty(OidcConfiguration.LOGIN_STRATEGY_CUSTOM_CLAIM_NAME, "ext.logins.0");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access.roles");
+
+    UserIdentity identity = underTest.create(userInfo);
+    assertThat(identity.getProviderLogin()).isEqualTo("jdoo");
+    assertThat(identity.getGroups()).containsExactlyInAnyOrder("admins", "users");
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "/resource_access/my.client/roles");
+    config.invalidate();
+    assertThat(underTest.create(userInfo).getGroups()).containsExactly("developers");
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access.groups");
+    config.invalidate();
+    IllegalStateException exception = assertThrows(IllegalStateException.class, () -> underTest.create(userInfo));
+    assertTrue(exception.getMessage().startsWith("Groups claim 'realm_access.groups' is missing in user info"));
+  }
+
+  @Test
+  public void throw_ISE_if_groups_claim_has_unsupported_type() throws ParseException {
+    UserInfo userInfo = UserInfo.parse("{\"sub\":\"8f63a486\",\"name\":\"John Doo\","
+        + "\"preferred_username\":\"jdoo\",\"realm_access\":{\"roles\":[\"admins\"]},\"level\":42}");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "realm_access");
+
+    IllegalStateException exception = assertThrows(IllegalStateException.class, () -> underTest.create(userInfo));
+    assertTrue(exception.getMessage().startsWith("Groups claim 'realm_access' has unsupported type"));
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_CLAIM_NAME, "level");
+    config.invalidate();
+    exception = assertThrows(IllegalStateException.class, () -> underTest.create(userInfo));
+    assertTrue(exception.getMessage().startsWith("Groups claim 'level' has unsupported type"));
+  }
+
   @Test
   public void no_email() {
     UserInfo userInfo = newUserInfo(false, false);
@@ -179,6 +221,59 @@ public class UserIdentityFactoryTest {
     assertThat(identity.getGroups()).containsAll(Arrays.asList("admins", "internal"));
   }
 
+  @Test
+  public void create_with_filtered_groups() {
+    UserInfo userInfo = newUserInfo(false, false);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_INCLUDE, "admin*,internal");
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "internal");
+    assertThat(underTest.create(userInfo).getGroups()).containsExactly("admins");
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "regex:.*s$");
+    config.invalidate();
+    assertThat(underTest.create(userInfo).getGroups()).containsExactly("internal");
+
+    UserInfo userInfoWithGroupsString = newUserInfo(false, true);
+    assertThat(underTest.create(userInfoWithGroupsString).getGroups()).containsExactly("internal");
+  }
+
+  @Test
+  public void create_with_mapped_groups() {
+    UserInfo userInfo = newUserInfo(false, false);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAPPING, "admins=sonar-administrators,regex:int(.*)=ext$1");
+    assertThat(underTest.create(userInfo).getGroups()).containsExactlyInAnyOrder("sonar-administrators", "external");
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "admins");
+    config.invalidate();
+    assertThat(underTest.create(userInfo).getGroups()).containsExactly("external");
+  }
+
+  @Test
+  public void create_without_unchanged_groups() {
+    TestSystem2 system2 = new TestSystem2().setNow(1_000_000);
+    OidcConfiguration configuration = new OidcConfiguration(settings.asConfig(), system2);
+    UserIdentityFactory factory = new UserIdentityFactory(configuration, system2);
+    UserInfo userInfo = newUserInfo(false, false);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC, true);
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_MAX_AGE, 60);
+
+    UserIdentity identity = factory.create(userInfo);
+    assertThat(identity.shouldSyncGroups()).isTrue();
+    factory.groupsSynchronized(identity);
+    identity = factory.create(userInfo);
+    assertThat(identity.shouldSyncGroups()).isFalse();
+    factory.groupsSynchronized(identity);
+
+    system2.setNow(1_060_000);
+    assertThat(factory.create(userInfo).shouldSyncGroups()).isTrue();
+
+    settings.setProperty(OidcConfiguration.GROUPS_SYNC_EXCLUDE, "internal");
+    configuration.invalidate();
+    identity = factory.create(userInfo);
+    assertThat(identity.getGroups()).containsExactly("admins");
+  }
+
   @Test
   public void create_with_synched_single_group_as_list() {
     UserInfo userInfo = newUserInfo(true, false);
@@ -0,0 +1,79 @@
+/*
+ * OpenID Connect Authentication for SonarQube
+ * Copyright (c) 2017 Torsten Juergeleit
+ * mailto:torsten AT vaulttec DOT org
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.vaulttec.sonarqube.auth.oidc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.Test;
+import org.sonar.api.utils.internal.TestSystem2;
+
+import com.nimbusds.oauth2.sdk.id.Subject;
+import com.nimbusds.openid.connect.sdk.claims.UserInfo;
+
+public class UserInfoCacheTest {
+
+  private static final long NOW = 1_000_000;
+  private static final long TTL = 1000;
+
+  private final TestSystem2 system2 = new TestSystem2().setNow(NOW);
+  private long ttl = TTL;
+  private final UserInfoCache underTest = new UserInfoCache(2, () -> ttl, system2);
+
+  @Test
+  public void cache_within_ttl() {
+    UserInfo userInfo = userInfo("john");
+    underTest.put("john", userInfo);
+    system2.setNow(NOW + TTL - 1);
+    assertThat(underTest.get("john")).isSameAs(userInfo);
+    system2.setNow(NOW + TTL);
+    assertThat(underTest.get("john")).isNull();
+    assertThat(underTest.size()).isZero();
+  }
+
+  @Test
+  public void evict_least_recently_used() {
+    underTest.put("john", userInfo("john"));
+    underTest.put("jane", userInfo("jane"));
+    underTest.get("john");
+    underTest.put("jim", userInfo("jim"));
+    assertThat(underTest.get("jane")).isNull();
+    assertThat(underTest.get("john")).isNotNull();
+    assertThat(underTest.get("jim")).isNotNull();
+  }
+
+  @Test
+  public void disabled_cache() {
+    ttl = 0;
+    assertThat(underTest.isEnabled()).isFalse();
+    underTest.put("john", userInfo("john"));
+    assertThat(underTest.get("john")).isNull();
+    assertThat(new UserInfoCache(0, () -> TTL, system2).isEnabled()).isFalse();
+  }
+
+  @Test
+  public void invalidate() {
+    underTest.put("john", userInfo("john"));
+    underTest.invalidate();
+    assertThat(underTest.get("john")).isNull();
+  }
+
+  private static UserInfo userInfo(String subject) {
+    return new UserInfo(new Subject(subject));
+  }
+
+}